@@ -4,18 +4,31 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.infolink.dfs.bfs.BlockCache;
+import com.infolink.dfs.bfs.BlockRegion;
+import com.infolink.dfs.bfs.CompactionResult;
+import com.infolink.dfs.shared.BlockHash;
 import com.infolink.dfs.shared.DfsNode;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
 import java.io.IOException;
+import java.nio.channels.Channels;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
 
 @RestController
 public class BlockController {
     private static final Logger logger = LoggerFactory.getLogger(BlockController.class);
+    private static final int MAX_READ_BATCH = 4096; // Hashes per read-batch request
 
     @Autowired
     private BlockService blockService;
@@ -31,6 +44,8 @@ public class BlockController {
             blockService.storeBlockLocally(hash, block, false);
             
             return ResponseEntity.status(HttpStatus.CREATED).body("Block stored successfully with hash: " + hash);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid block hash: " + e.getMessage());
         } catch (NoSuchAlgorithmException | IOException e) {
             // Handle exceptions and return appropriate response
             e.printStackTrace();
@@ -38,25 +53,107 @@ public class BlockController {
         }
     }
 
+    // Store a block sent as raw bytes, with its hash in the path. The body is read once,
+    // hashed on the way in and rejected if it does not match.
+    @PostMapping(value = "/dfs/block/store/{hash}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<String> storeBlockBytes(@PathVariable String hash, HttpServletRequest request) {
+        try {
+            blockService.storeBlockLocally(hash, request.getInputStream(), request.getContentLengthLong());
+            return ResponseEntity.status(HttpStatus.CREATED).body("Block stored successfully with hash: " + hash);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid block: " + e.getMessage());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            logger.error("Error storing block {}: {}", hash, e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error storing block: " + e.getMessage());
+        }
+    }
+
+    // Store many blocks from one body of frames (hash, length, bytes); see BlockFrames.
+    // Answers with the status of each block in request order.
+    @PostMapping(value = "/dfs/block/store-batch", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<List<ResponseStoreBlock>> storeBlocks(HttpServletRequest request) {
+        try {
+            return ResponseEntity.ok(blockService.storeBlocks(request.getInputStream()));
+        } catch (IOException e) {
+            // A cut-off or malformed stream; blocks before the bad frame are stored
+            logger.error("Error reading block batch: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+    }
+
+    // Read many blocks in one round trip: answers with a frame (hash, length, bytes) per
+    // requested hash, in request order, and a missing marker for blocks not on this node
+    @PostMapping(value = "/dfs/block/read-batch", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> readBlocks(@RequestBody List<String> hashes) {
+        if (hashes.size() > MAX_READ_BATCH) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+        List<BlockHash> blockHashes;
+        try {
+            blockHashes = hashes.stream().map(BlockHash::fromHex).collect(Collectors.toList());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+
+        StreamingResponseBody body = outputStream -> blockService.writeBlockFrames(blockHashes, outputStream);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(body);
+    }
+
+    // Unencrypted blocks are copied from their data file in small chunks instead of being
+    // read whole into an array; encrypted blocks are read and decrypted as before
     @GetMapping("/dfs/block/read/{hash}")
-    public ResponseEntity<byte[]> readBlock(@PathVariable String hash) {
+    public void readBlock(@PathVariable String hash, HttpServletResponse response) throws IOException {
         try {
+            try (BlockRegion region = blockService.openBlockRegion(hash)) {
+                if (region != null) {
+                    response.setStatus(HttpStatus.OK.value());
+                    response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+                    response.setContentLength(region.getLength());
+                    region.transferTo(Channels.newChannel(response.getOutputStream()));
+                    return;
+                }
+            }
+
             byte[] blockData = blockService.readBlock(hash);
-            return ResponseEntity.ok(blockData); // Return the block data with 200 OK status
+            response.setStatus(HttpStatus.OK.value());
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            response.setContentLength(blockData.length);
+            response.getOutputStream().write(blockData);
             
         } catch (IOException e) {
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+            logger.error("Error reading block {}: {}", hash, e.getMessage());
+            if (response.isCommitted()) {
+                throw e; // Part of the block is already out; only dropping the connection is left
+            }
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
             
         } catch (NoSuchElementException e) {
-            return ResponseEntity.status(HttpStatus.NO_CONTENT).body(null);
+            response.setStatus(HttpStatus.NO_CONTENT.value());
+            
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
             
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
         }
     }
     
+    // Cheap existence check for dedupe: answered from the in-memory index
+    @GetMapping("/dfs/block/exists/{hash}")
+    public ResponseEntity<Boolean> blockExists(@PathVariable String hash) {
+        try {
+            return ResponseEntity.ok(blockService.hasBlock(hash));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+    }
+
+    @GetMapping("/dfs/block/cache-stats")
+    public ResponseEntity<BlockCache.Stats> blockCacheStats() {
+        return ResponseEntity.ok(blockService.getBlockCacheStats());
+    }
+
     @PostMapping("/dfs/block/replicate-to-another-node")
     public ResponseEntity<String> replicateToAnotherNode(@RequestBody RequestReplicateBlock requestReplicateBlock) {
         logger.debug("/dfs/block/replicate-to-another-node requested.");
@@ -91,6 +188,17 @@ public class BlockController {
     	blockService.clearBlockFiles();
     	return ResponseEntity.ok("All block files are cleared.");
     }
+
+    // Run a compaction pass now instead of waiting for the scheduled one
+    @PostMapping("/dfs/block/compact")
+    public ResponseEntity<CompactionResult> compactBlocks() {
+        try {
+            return ResponseEntity.ok(blockService.compactStorage());
+        } catch (IOException e) {
+            logger.error("Block compaction failed", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
+        }
+    }
     
     // Inner class for request payload
     public static class RequestStoreBlock {
@@ -0,0 +1,53 @@
+package com.infolink.dfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.core.io.AbstractResource;
+
+import com.infolink.dfs.shared.BlockFrames;
+import com.infolink.dfs.shared.BlockHash;
+
+// Request body of block frames, streamed from the block buffers without copying them into one array
+public class BlockFramesResource extends AbstractResource {
+    private final List<BlockHash> hashes = new ArrayList<>();
+    private final List<byte[]> blocks = new ArrayList<>();
+    private final List<Integer> lengths = new ArrayList<>();
+    private long contentLength;
+
+    // Add the first length bytes of block as the next frame
+    public void add(BlockHash hash, byte[] block, int length) {
+        hashes.add(hash);
+        blocks.add(block);
+        lengths.add(length);
+        contentLength += BlockFrames.HEADER_SIZE + length;
+    }
+
+    public int size() {
+        return hashes.size();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        List<InputStream> parts = new ArrayList<>(hashes.size() * 2);
+        for (int i = 0; i < hashes.size(); i++) {
+            parts.add(new ByteArrayInputStream(BlockFrames.header(hashes.get(i), lengths.get(i))));
+            parts.add(new ByteArrayInputStream(blocks.get(i), 0, lengths.get(i)));
+        }
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public String getDescription() {
+        return "block frames [" + hashes.size() + " blocks]";
+    }
+}
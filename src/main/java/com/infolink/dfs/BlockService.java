@@ -8,21 +8,40 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
 import com.infolink.dfs.BlockController.RequestStoreBlock;
+import com.infolink.dfs.bfs.BlockCache;
+import com.infolink.dfs.bfs.BlockCompactor;
+import com.infolink.dfs.bfs.BlockRegion;
 import com.infolink.dfs.bfs.BlockStorage;
+import com.infolink.dfs.bfs.CompactionResult;
+import com.infolink.dfs.shared.BlockFrames;
+import com.infolink.dfs.shared.BlockHash;
 import com.infolink.dfs.shared.DfsNode;
 import com.infolink.dfs.metanode.ResponseNodesForBlock;
 import com.infolink.dfs.shared.HashUtil;
 
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import jakarta.annotation.PreDestroy;
 
 @Service
 public class BlockService {
@@ -33,19 +52,124 @@ public class BlockService {
     @Autowired
     private BlockStorage blockStorage;
 
+    @Autowired
+    private BlockCompactor blockCompactor;
+
     @Autowired
     private Config config;
 
+    private volatile boolean batchRegistrationSupported = true;
+    private final ExecutorService registrationExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "block-register");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public String storeBlockLocally(String hash, byte[] block, boolean encrypt) throws NoSuchAlgorithmException, IOException {
-        blockStorage.saveBlock(hash, block, false); // Assuming false indicates no overwrite
-        registerBlockLocation(hash);
+        storeBlockLocally(BlockHash.fromHex(hash), block, encrypt);
+        return hash;
+    }
+
+    public BlockHash storeBlockLocally(BlockHash hash, byte[] block, boolean encrypt) throws NoSuchAlgorithmException, IOException {
+        return storeBlockLocally(hash, block, block.length, encrypt);
+    }
+
+    // Store the first length bytes of block
+    public BlockHash storeBlockLocally(BlockHash hash, byte[] block, int length, boolean encrypt) throws NoSuchAlgorithmException, IOException {
+        blockStorage.saveBlock(hash, block, length, false); // Assuming false indicates no overwrite
+        registerBlockLocation(hash.toHex());
         logger.debug("Block saved locally and location registered with hash: {}", hash);
 
         return hash;
     }
     
+    // Store a block sent as raw bytes. The content is hashed as it is read and only
+    // stored if it matches the hash it was sent under.
+    public BlockHash storeBlockLocally(String hash, InputStream body, long contentLength) throws NoSuchAlgorithmException, IOException {
+        BlockHash expected = BlockHash.fromHex(hash);
+        int maxBlockSize = config.getMaxBlockSize();
+        if (contentLength > maxBlockSize) {
+            throw new IllegalArgumentException("Block of " + contentLength + " bytes exceeds the limit of " + maxBlockSize);
+        }
+
+        MessageDigest digest = HashUtil.blockDigest();
+        byte[] block;
+        if (contentLength >= 0) {
+            block = new byte[(int) contentLength];
+            int read = 0;
+            while (read < block.length) {
+                int count = body.read(block, read, block.length - read);
+                if (count < 0) {
+                    throw new IOException("Block body ended after " + read + " of " + block.length + " bytes");
+                }
+                digest.update(block, read, count);
+                read += count;
+            }
+        } else {
+            // Chunked request without a length: read up to the limit, then hash
+            block = body.readNBytes(maxBlockSize + 1);
+            if (block.length > maxBlockSize) {
+                throw new IllegalArgumentException("Block exceeds the limit of " + maxBlockSize + " bytes");
+            }
+            digest.update(block);
+        }
+        if (block.length == 0) {
+            throw new IllegalArgumentException("Empty block for hash " + hash);
+        }
+
+        BlockHash actual = BlockHash.of(digest.digest());
+        if (!actual.equals(expected)) {
+            throw new IllegalArgumentException("Block content hashes to " + actual + ", not " + hash);
+        }
+        return storeBlockLocally(expected, block, block.length, false);
+    }
+
+    // Store a stream of block frames in one pass. Each block is checked against its
+    // hash and saved as it arrives; the whole batch then waits for a single group
+    // commit and has its locations registered together. Returns one status per frame,
+    // in stream order.
+    public List<ResponseStoreBlock> storeBlocks(InputStream body) throws IOException {
+        DataInputStream in = new DataInputStream(body);
+        List<ResponseStoreBlock> results = new ArrayList<>();
+        List<ResponseStoreBlock> stored = new ArrayList<>();
+        long ticket = 0;
+
+        BlockFrames.Frame frame;
+        while ((frame = BlockFrames.read(in, config.getMaxBlockSize())) != null) {
+            String hash = frame.getHash().toHex();
+            byte[] block = frame.getData();
+            ResponseStoreBlock result = new ResponseStoreBlock(hash, ResponseStoreBlock.Status.STORED);
+            if (block == null || block.length == 0) {
+                result.setStatus(ResponseStoreBlock.Status.REJECTED);
+            } else if (!HashUtil.calculateBlockHash(block).equals(frame.getHash())) {
+                result.setStatus(ResponseStoreBlock.Status.HASH_MISMATCH);
+            } else {
+                try {
+                    ticket = Math.max(ticket, blockStorage.saveBlockDeferred(frame.getHash(), block, block.length, false));
+                    stored.add(result);
+                } catch (IOException | NoSuchAlgorithmException e) {
+                    logger.error("Error storing block {} of a batch: {}", hash, e.getMessage());
+                    result.setStatus(ResponseStoreBlock.Status.FAILED);
+                }
+            }
+            results.add(result);
+        }
+
+        try {
+            blockStorage.awaitDurable(ticket);
+        } catch (IOException e) {
+            logger.error("Error syncing a batch of {} blocks: {}", stored.size(), e.getMessage());
+            stored.forEach(result -> result.setStatus(ResponseStoreBlock.Status.FAILED));
+            return results;
+        }
+        registerBlockLocations(stored.stream().map(ResponseStoreBlock::getHash).collect(Collectors.toList()));
+        logger.debug("Stored {} of {} blocks in a batch", stored.size(), results.size());
+        return results;
+    }
+
     public String checkAndStoreBlock(byte[] block) throws NoSuchAlgorithmException, IOException, Exception {
-        String hash = HashUtil.calculateHash(block);
+        BlockHash blockHash = HashUtil.calculateBlockHash(block);
+        String hash = blockHash.toHex();
         logger.debug("Calculated hash for the block: {}", hash);
 
         // Step 1: Get the nodes responsible for the block from the meta node
@@ -66,7 +190,7 @@ public class BlockService {
             if (isCurrentNode(node)) {
                 logger.debug("Current node is responsible for the block. Saving block locally with hash: {}", hash);
                 // Current node: Save the block locally and register its location
-                storeBlockLocally(hash, block, false);
+                storeBlockLocally(blockHash, block, false);
             } else {
                 logger.debug("Storing block on remote node: {} for hash: {}", node.getContainerUrl(), hash);
                 // Not the current node: Store the block remotely
@@ -84,6 +208,53 @@ public class BlockService {
         return blockData;
     }
     
+    // Read for streaming a whole file: served from the cache on a hit, but not added to it
+    public byte[] readBlockUncached(String hash) throws IOException, NoSuchElementException, NoSuchAlgorithmException {
+        return blockStorage.readBlock(BlockHash.fromHex(hash), false);
+    }
+
+    // Region of an unencrypted block on disk, or null if it must be read with readBlock
+    public BlockRegion openBlockRegion(String hash) throws IOException, NoSuchElementException {
+        return blockStorage.openBlockRegion(BlockHash.fromHex(hash));
+    }
+
+    // Write a frame for each hash, in request order, with a missing marker for blocks this
+    // node does not have. Storage is read in on-disk order one window at a time; blocks
+    // read ahead of their turn wait in memory, at most a window's worth, and every run
+    // that becomes complete is written out at once.
+    public void writeBlockFrames(List<BlockHash> hashes, OutputStream body) throws IOException {
+        DataOutputStream out = new DataOutputStream(body);
+        byte[][] blocks = new byte[hashes.size()][];
+        boolean[] read = new boolean[hashes.size()];
+        int[] next = {0};
+        try {
+            blockStorage.readBlocks(hashes, (index, data) -> {
+                blocks[index] = data;
+                read[index] = true;
+                for (; next[0] < hashes.size() && read[next[0]]; next[0]++) {
+                    byte[] block = blocks[next[0]];
+                    if (block == null) {
+                        BlockFrames.writeMissing(out, hashes.get(next[0]));
+                    } else {
+                        BlockFrames.write(out, hashes.get(next[0]), block, 0, block.length);
+                    }
+                    blocks[next[0]] = null;
+                }
+            });
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Error reading block batch", e);
+        }
+        out.flush();
+    }
+
+    public BlockCache.Stats getBlockCacheStats() {
+        return blockStorage.getCacheStats();
+    }
+
+    public boolean hasBlock(String hash) {
+        return blockStorage.containsBlock(hash);
+    }
+
     private List<String> getBlockNodesMapping(String hash) {
         try {
             ResponseEntity<List<DfsNode>> response = restTemplate.exchange(
@@ -149,11 +320,18 @@ public class BlockService {
     	
     	logger.debug("storeBlockOnRemoteNode: {}", nodeUrl);
     	
-        String url = String.format("%s/dfs/block/store", nodeUrl);
-        RequestStoreBlock request = new RequestStoreBlock(hash, block);
-
-        HttpEntity<RequestStoreBlock> requestEntity = new HttpEntity<>(request);
-        ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, requestEntity, String.class);
+        // Raw bytes with the hash in the path; nodes without the binary endpoint get JSON
+        ResponseEntity<String> response;
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            String url = String.format("%s/dfs/block/store/%s", nodeUrl, hash);
+            response = restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(block, headers), String.class);
+        } catch (HttpClientErrorException.NotFound | HttpClientErrorException.MethodNotAllowed e) {
+            String url = String.format("%s/dfs/block/store", nodeUrl);
+            HttpEntity<RequestStoreBlock> requestEntity = new HttpEntity<>(new RequestStoreBlock(hash, block));
+            response = restTemplate.exchange(url, HttpMethod.POST, requestEntity, String.class);
+        }
         if (!response.getStatusCode().is2xxSuccessful()) {
         	throw new Exception("Fail to store block onto " + nodeUrl + ". Response is " + response.getBody());
         } else {
@@ -186,6 +364,37 @@ public class BlockService {
         return false;
     }
 
+    // Register the locations of a batch of blocks stored here with one metanode request.
+    // A metanode without the batch endpoint is asked per block from then on; those calls
+    // run on the registration thread so the batch's response does not wait on them.
+    public void registerBlockLocations(List<String> hashes) {
+        if (hashes.isEmpty()) {
+            return;
+        }
+        if (batchRegistrationSupported) {
+            String url = String.format("%s/metadata/block/register-block-locations", config.getMetaNodeUrl());
+            try {
+                HttpEntity<RequestBlockLocations> requestEntity =
+                    new HttpEntity<>(new RequestBlockLocations(hashes, config.getContainerUrl()));
+                restTemplate.exchange(url, HttpMethod.POST, requestEntity, String.class);
+                return;
+            } catch (HttpClientErrorException.NotFound | HttpClientErrorException.MethodNotAllowed e) {
+                logger.info("Metanode has no batch registration endpoint; registering per block from now on.");
+                batchRegistrationSupported = false;
+            } catch (Exception e) {
+                logger.error("Error registering {} block locations: {}", hashes.size(), e.getMessage());
+            }
+        }
+
+        List<String> pending = new ArrayList<>(hashes);
+        registrationExecutor.execute(() -> pending.forEach(this::registerBlockLocation));
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        registrationExecutor.shutdown();
+    }
+
     public void unregisterBlock(String hash) {
         String url = String.format("%s/metadata/block/unregister-block/%s", config.getMetaNodeUrl(), hash);
 
@@ -207,6 +416,10 @@ public class BlockService {
     	blockStorage.clearFiles();
     }
 
+    public CompactionResult compactStorage() throws IOException {
+    	return blockCompactor.runCompaction();
+    }
+
     // Inner class for request
     public static class RequestBlockNode {
         private String hash;
@@ -219,6 +432,24 @@ public class BlockService {
         public void setNodeUrl(String nodeUrl) 	{   this.nodeUrl = nodeUrl;        	}
     }
 
+    // Batched form of RequestBlockNode: every hash is registered on nodeUrl
+    public static class RequestBlockLocations {
+        private List<String> hashes;
+        private String nodeUrl;
+
+        public RequestBlockLocations() {}
+
+        public RequestBlockLocations(List<String> hashes, String nodeUrl) {
+            this.hashes = hashes;
+            this.nodeUrl = nodeUrl;
+        }
+        // Getters and Setters
+        public List<String> getHashes() 			{   return hashes;        			}
+        public void setHashes(List<String> hashes) 	{   this.hashes = hashes;        	}
+        public String getNodeUrl() 					{   return nodeUrl;        			}
+        public void setNodeUrl(String nodeUrl) 		{   this.nodeUrl = nodeUrl;        	}
+    }
+
     public static class RequestUnregisterBlock 	{
         public String hash;
         public String nodeUrl;
@@ -0,0 +1,34 @@
+package com.infolink.dfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.springframework.core.io.AbstractResource;
+
+// Request body over part of an array, so a buffer larger than its content can be sent without trimming it
+public class ByteSliceResource extends AbstractResource {
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+
+    public ByteSliceResource(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(data, offset, length);
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public String getDescription() {
+        return "byte slice [" + length + " bytes]";
+    }
+}
@@ -5,6 +5,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 import jakarta.annotation.PostConstruct;
@@ -12,8 +13,10 @@ import jakarta.annotation.PostConstruct;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.net.http.HttpClient;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.net.URI;
@@ -35,6 +38,36 @@ public class Config {
     @Value("${server.port:8081}") // Default to 8081 if not set
     private String serverPort;
     private Boolean runningInDocker;
+    @Value("${dfs.storage.index-mode:raf}") // raf or mmap
+    private String indexMode;
+    @Value("${dfs.storage.engine:bucket}") // bucket or segment
+    private String storageEngine;
+    @Value("${dfs.storage.segment-size:268435456}") // 256 MB per segment file
+    private long segmentSize;
+    @Value("${dfs.storage.sync-policy:none}") // none, interval or batch
+    private String syncPolicy;
+    @Value("${dfs.storage.sync-interval:1000}") // Milliseconds between syncs under the interval policy
+    private long syncInterval;
+    @Value("${dfs.storage.block-cache-size:268435456}") // Off-heap bytes for hot blocks, 0 = disabled
+    private long blockCacheSize;
+    @Value("${dfs.storage.max-open-files:512}") // Open handles kept per file cache
+    private int maxOpenFiles;
+    @Value("${dfs.block.max-size:1048576}") // Largest block a node accepts from a peer
+    private int maxBlockSize;
+    @Value("${dfs.http.connect-timeout:2000}") // Milliseconds to open a connection to a peer or the metanode
+    private long httpConnectTimeout;
+    @Value("${dfs.http.read-timeout:30000}") // Milliseconds to wait for a response to start
+    private long httpReadTimeout;
+    @Value("${dfs.http.keep-alive:60}") // Seconds an idle pooled connection stays open
+    private long httpKeepAlive;
+    @Value("${dfs.http.version:http_1_1}") // http_1_1 or http_2
+    private String httpVersion;
+    @Value("${dfs.storage.compaction.enabled:true}")
+    private boolean compactionEnabled;
+    @Value("${dfs.storage.compaction.rate-bytes-per-second:8388608}") // 8 MB/s, 0 = unthrottled
+    private long compactionBytesPerSecond;
+    @Value("${dfs.storage.compaction.min-dead-ratio:0.3}") // Only evacuate segments this empty
+    private double compactionMinDeadRatio;
     
     public Config() {
     }
@@ -83,9 +116,22 @@ public class Config {
         this.keyAlias         = "alias";
     }
 
+	// One client for all node-to-node and metanode traffic. The JDK HttpClient keeps a
+	// pool of persistent connections per peer, so block reads and writes do not pay a
+	// TCP handshake each; with http_2 the requests to a peer share one connection.
 	@Bean
 	public RestTemplate restTemplate() {
-	    RestTemplate restTemplate = new RestTemplate();
+	    if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+	        System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(httpKeepAlive));
+	    }
+	    HttpClient httpClient = HttpClient.newBuilder()
+	            .version(HttpClient.Version.valueOf(httpVersion.toUpperCase()))
+	            .connectTimeout(Duration.ofMillis(httpConnectTimeout))
+	            .build();
+	    JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+	    requestFactory.setReadTimeout(Duration.ofMillis(httpReadTimeout));
+
+	    RestTemplate restTemplate = new RestTemplate(requestFactory);
 	    restTemplate.getMessageConverters().add(new ByteArrayHttpMessageConverter());
 	    return restTemplate;
 	}
@@ -187,4 +233,48 @@ public class Config {
 	public String getLocalUrl() {
 		return localUrl;
 	}
+
+	public String getIndexMode() {
+		return indexMode;
+	}
+
+	public String getStorageEngine() {
+		return storageEngine;
+	}
+
+	public long getSegmentSize() {
+		return segmentSize;
+	}
+
+	public String getSyncPolicy() {
+		return syncPolicy;
+	}
+
+	public long getSyncInterval() {
+		return syncInterval;
+	}
+
+	public long getBlockCacheSize() {
+		return blockCacheSize;
+	}
+
+	public int getMaxOpenFiles() {
+		return maxOpenFiles;
+	}
+
+	public int getMaxBlockSize() {
+		return maxBlockSize;
+	}
+
+	public boolean isCompactionEnabled() {
+		return compactionEnabled;
+	}
+
+	public long getCompactionBytesPerSecond() {
+		return compactionBytesPerSecond;
+	}
+
+	public double getCompactionMinDeadRatio() {
+		return compactionMinDeadRatio;
+	}
 }
@@ -23,7 +23,8 @@ import jakarta.annotation.PostConstruct;
 @EnableScheduling
 public class DFSNodeApplication {
     private static final Logger logger = LoggerFactory.getLogger(DFSNodeApplication.class);
-    private RestTemplate restTemplate = new RestTemplate();
+    @Autowired
+    private RestTemplate restTemplate;
     private Path rootDir;
     @Autowired
     private Config config;
@@ -11,6 +11,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -18,11 +19,13 @@ import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.infolink.dfs.chunk.Chunker;
 import com.infolink.dfs.shared.DfsFile;
 
 
@@ -36,10 +39,15 @@ public class DedupeFileController {
     @PostMapping("/dfs/file/upload")
     public ResponseEntity<String> uploadFile(@RequestParam("file") MultipartFile file,
                                              @RequestParam("user") String user,
-                                             @RequestParam("targetDir") String targetDir) {
+                                             @RequestParam("targetDir") String targetDir,
+                                             @RequestParam(value = "chunking", required = false) String chunking) {
         try {
-            String result = dedupeFileService.dedupeSaveFile(file, user, targetDir);
+            Chunker.Mode mode = chunking == null ? null : Chunker.Mode.valueOf(chunking.toUpperCase());
+            String result = dedupeFileService.dedupeSaveFile(file, user, targetDir, mode);
             return ResponseEntity.ok(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Unknown chunking mode: " + chunking);
         } catch (IOException | NoSuchAlgorithmException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Error uploading file: " + e.getMessage());
@@ -47,7 +55,8 @@ public class DedupeFileController {
     }
 
     @PostMapping("/dfs/file/download")
-    public ResponseEntity<StreamingResponseBody> downloadFile(@RequestBody Map<String, String> request) {
+    public ResponseEntity<StreamingResponseBody> downloadFile(@RequestBody Map<String, String> request,
+                                                              @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader) {
         String filepath = request.get("filepath");
         String username = request.get("username");
 
@@ -63,20 +72,16 @@ public class DedupeFileController {
 
             logger.info("File metadata retrieved successfully for filepath: {} by user: {}", filepath, username);
 
-            // Use the revised downloadFile method to get the DownloadResponse
-            DownloadResponse downloadResponse = dedupeFileService.downloadFile(dfsFile.getHash());
-            if (downloadResponse == null || downloadResponse.getBody() == null) {
+            // Download this record rather than whichever one the hash maps to, so the
+            // name sent is the one at the requested path
+            DownloadResponse downloadResponse = dedupeFileService.downloadFile(dfsFile, parseRange(rangeHeader));
+            if (downloadResponse == null || (downloadResponse.getBody() == null && !downloadResponse.isUnsatisfiable())) {
                 logger.warn("No content found for file hash: {}", dfsFile.getHash());
                 return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
             }
 
             logger.info("Initiating file download for file hash: {}", dfsFile.getHash());
-
-            // Set the response headers for file download
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + downloadResponse.getFilename() + "\"")
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)  // Set content type for binary download
-                    .body(downloadResponse.getBody());
+            return downloadResponseEntity(downloadResponse);
 
         } catch (Exception e) {
             logger.error("Error occurred during file download for filepath: {} by user: {}", filepath, username, e);
@@ -86,7 +91,8 @@ public class DedupeFileController {
 
     @CrossOrigin(origins = "*")
     @GetMapping("/dfs/file/downloadByHash")
-    public ResponseEntity<StreamingResponseBody> downloadFileByHash(@RequestParam("hash") String hash) {
+    public ResponseEntity<StreamingResponseBody> downloadFileByHash(@RequestParam("hash") String hash,
+                                                                    @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader) {
         logger.debug("downloadFileByHash() called with hash: {}", hash);
 
         if (hash == null || hash.isEmpty()) {
@@ -95,17 +101,48 @@ public class DedupeFileController {
         }
 
         // Fetch the file content as a stream based on the provided hash
-        DownloadResponse downloadResponse = dedupeFileService.downloadFile(hash);
+        DownloadResponse downloadResponse = dedupeFileService.downloadFile(hash, parseRange(rangeHeader));
 
-        if (downloadResponse == null || downloadResponse.getBody() == null) {
+        if (downloadResponse == null || (downloadResponse.getBody() == null && !downloadResponse.isUnsatisfiable())) {
             logger.info("No content found for hash: {}", hash);
             return ResponseEntity.status(HttpStatus.NO_CONTENT).body(null);
         }
 
-        // Set the Content-Disposition header with the correct filename
-        return ResponseEntity.ok()
+        return downloadResponseEntity(downloadResponse);
+    }
+
+    // Only a single byte range is served. A malformed Range header or a request for
+    // several ranges is ignored and the whole file is sent, as RFC 9110 allows.
+    private static HttpRange parseRange(String rangeHeader) {
+        if (rangeHeader == null || rangeHeader.isBlank()) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            logger.debug("Ignoring Range header '{}': {}", rangeHeader, e.getMessage());
+            return null;
+        }
+    }
+
+    private static ResponseEntity<StreamingResponseBody> downloadResponseEntity(DownloadResponse downloadResponse) {
+        if (downloadResponse.isUnsatisfiable()) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + downloadResponse.getFileSize())
+                    .build();
+        }
+
+        // Set the response headers for file download
+        ResponseEntity.BodyBuilder builder = downloadResponse.isPartial()
+                ? ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                        .header(HttpHeaders.CONTENT_RANGE, downloadResponse.getContentRange())
+                        .contentLength(downloadResponse.getContentLength())
+                : ResponseEntity.ok();
+        return builder
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + downloadResponse.getFilename() + "\"")
-                .header(HttpHeaders.CONTENT_TYPE, "application/octet-stream")  // Set content type for binary download
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)  // Set content type for binary download
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
                 .body(downloadResponse.getBody());
     }
   
@@ -1,16 +1,37 @@
 package com.infolink.dfs;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -24,8 +45,17 @@ import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import com.infolink.dfs.BlockController.RequestStoreBlock;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.infolink.dfs.bfs.BlockRegion;
+import com.infolink.dfs.chunk.BufferPool;
+import com.infolink.dfs.chunk.Chunker;
+import com.infolink.dfs.chunk.ChunkingConfig;
+import com.infolink.dfs.shared.BlockFrames;
+import com.infolink.dfs.shared.BlockHash;
 import com.infolink.dfs.shared.DfsNode;
+import com.infolink.dfs.metanode.RequestNodesForBlocks;
 import com.infolink.dfs.metanode.ResponseNodesForBlock;
 import com.infolink.dfs.shared.DfsFile;
 import com.infolink.dfs.shared.HashUtil;
@@ -33,15 +63,18 @@ import com.infolink.dfs.shared.HashUtil;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClientException;
 
 import com.infolink.dfs.shared.BlockNode;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 @Service
 public class DedupeFileService {
@@ -54,9 +87,68 @@ public class DedupeFileService {
     private RestTemplate restTemplate;
     @Value("${dfs.block.size:8196}")
     private int BLOCK_SIZE;
+    @Value("${dfs.upload.chunking:fixed}") // fixed or cdc
+    private String defaultChunking;
+    @Value("${dfs.upload.cdc.min-size:2048}")
+    private int cdcMinSize;
+    @Value("${dfs.upload.cdc.avg-size:8192}")
+    private int cdcAvgSize;
+    @Value("${dfs.upload.cdc.max-size:65536}")
+    private int cdcMaxSize;
+    @Value("${dfs.upload.pipeline-depth:256}") // Blocks of one upload held in memory at once
+    private int pipelineDepth;
+    @Value("${dfs.upload.placement-batch-size:256}") // Hashes per metanode placement request
+    private int placementBatchSize;
+    @Value("${dfs.upload.threads:16}") // Shared by all uploads for placement and shipping
+    private int uploadThreads;
+    @Value("${dfs.upload.write-quorum:1}") // Replica acks needed before a block counts as stored
+    private int writeQuorum;
+    @Value("${dfs.upload.replica-threads:32}")
+    private int replicaThreads;
+    @Value("${dfs.download.read-batch-size:256}") // Blocks fetched per read-batch request
+    private int readBatchSize;
+    @Value("${dfs.download.prefetch-bytes:67108864}") // Block data of one download fetched ahead of the stream
+    private long prefetchBytes;
+    @Value("${dfs.download.threads:16}")
+    private int downloadThreads;
+    @Value("${dfs.node.address-ttl:300000}") // Milliseconds a peer's local URL is trusted
+    private long nodeAddressTtl;
+    @Value("${dfs.metadata.cache-size:10000}") // Entries per metadata cache
+    private int metadataCacheSize;
+    @Value("${dfs.metadata.file-ttl:600000}") // DfsFile by content hash; the content never changes
+    private long fileMetadataTtl;
+    @Value("${dfs.metadata.path-ttl:10000}") // DfsFile by path; an upload elsewhere can replace it
+    private long pathMetadataTtl;
+    @Value("${dfs.metadata.block-nodes-ttl:30000}") // Block locations of a file; replicas move
+    private long blockNodesTtl;
+    @Value("${dfs.read.threads:32}")
+    private int readThreads;
+    @Value("${dfs.read.hedge:true}") // Race a second replica when the first is slow
+    private boolean hedgeReads;
+    @Value("${dfs.read.hedge-min-delay:50}") // Milliseconds before a read may be hedged
+    private long hedgeMinDelay;
+    @Value("${dfs.upload.idle-buffers:512}") // Block buffers kept for reuse per chunk size
+    private int idleBuffers;
+    private final Map<Integer, BufferPool> uploadBuffers = new ConcurrentHashMap<>();
+    private volatile boolean batchPlacementSupported = true;
+    private final Set<String> jsonStoreNodes = ConcurrentHashMap.newKeySet();   // Peers without the binary store endpoint
+    private final Set<String> singleStoreNodes = ConcurrentHashMap.newKeySet(); // Peers without the batch store endpoint
+    private final Set<String> singleReadNodes = ConcurrentHashMap.newKeySet();  // Peers without the batch read endpoint
+    private NodeAddressCache nodeAddresses = new NodeAddressCache(0); // Local URLs of peers outside docker; TTL set on startup
+    // Metanode answers, sized and timed on startup
+    private MetadataCache<String, DfsFile> dfsFilesByHash = new MetadataCache<>(0, 0);
+    private MetadataCache<String, DfsFile> dfsFilesByPath = new MetadataCache<>(0, 0);
+    private MetadataCache<String, List<BlockNode>> fileBlockNodes = new MetadataCache<>(0, 0);
     private String metaNodeUrl;
     @Autowired
     private BlockService blockService;
+    @Autowired
+    private ObjectMapper objectMapper;
+    private ExecutorService uploadExecutor;
+    private ExecutorService replicaExecutor;    // Separate pool: upload threads wait on replica writes
+    private ExecutorService downloadExecutor;   // Prefetches block runs for download streams
+    private ExecutorService readExecutor;       // Remote block reads; callers only wait on it
+    private final ReplicaSelector replicaSelector = new ReplicaSelector();
     
     //private String fileControllerUrl; // URL of the FileController
     
@@ -65,11 +157,60 @@ public class DedupeFileService {
         this.metaNodeUrl = config.getMetaNodeUrl();
         //this.fileControllerUrl = this.metaNodeUrl;
         logger.info("DedupeFileService::metaNodeUrl={}", this.metaNodeUrl);
+        this.nodeAddresses = new NodeAddressCache(nodeAddressTtl);
+        nodeAddresses.put(config.getContainerUrl(), config.getLocalUrl());
+        this.dfsFilesByHash = new MetadataCache<>(metadataCacheSize, fileMetadataTtl);
+        this.dfsFilesByPath = new MetadataCache<>(metadataCacheSize, pathMetadataTtl);
+        this.fileBlockNodes = new MetadataCache<>(metadataCacheSize, blockNodesTtl);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.uploadExecutor = Executors.newFixedThreadPool(Math.max(1, uploadThreads), runnable -> {
+            Thread thread = new Thread(runnable, "block-upload-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger replicaThreadCount = new AtomicInteger();
+        this.replicaExecutor = Executors.newFixedThreadPool(Math.max(1, replicaThreads), runnable -> {
+            Thread thread = new Thread(runnable, "block-replica-" + replicaThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger readThreadCount = new AtomicInteger();
+        this.readExecutor = Executors.newFixedThreadPool(Math.max(1, readThreads), runnable -> {
+            Thread thread = new Thread(runnable, "block-read-" + readThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger downloadThreadCount = new AtomicInteger();
+        this.downloadExecutor = Executors.newFixedThreadPool(Math.max(1, downloadThreads), runnable -> {
+            Thread thread = new Thread(runnable, "block-download-" + downloadThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void preDestroy() {
+        uploadExecutor.shutdown();
+        replicaExecutor.shutdown();
+        downloadExecutor.shutdown();
+        readExecutor.shutdown();
     }
     
     public String dedupeSaveFile(MultipartFile file, String user, String targetDir) throws IOException, NoSuchAlgorithmException {
+        return dedupeSaveFile(file, user, targetDir, null);
+    }
+
+    // chunking: FIXED or CDC for this upload; null uses dfs.upload.chunking
+    public String dedupeSaveFile(MultipartFile file, String user, String targetDir, Chunker.Mode chunking) throws IOException, NoSuchAlgorithmException {
         logger.debug("dedupeSaveFile(...) called with targetDir: {}", targetDir);
-        logger.debug("BLOCK_SIZE={}", BLOCK_SIZE);
+        if (chunking == null) {
+            chunking = Chunker.Mode.valueOf(defaultChunking.toUpperCase());
+        }
+        logger.debug("BLOCK_SIZE={}, chunking={}", BLOCK_SIZE, chunking);
         
         String filename = file.getOriginalFilename();
         logger.debug("Original filename: {}", filename);
@@ -85,45 +226,36 @@ public class DedupeFileService {
         String parentHash = HashUtil.calculateHash(targetDir.getBytes());
         logger.debug("Calculated parent hash for targetDir '{}': {}", targetDir, parentHash);
         
-        List<String> blockHashes = new ArrayList<>();
+        // Read and hash blocks on this thread while earlier blocks are placed and shipped
+        // in the background. The semaphore caps the blocks held in memory per upload.
+        // Each block is read into a pooled buffer that is hashed, stored and sent as
+        // is, and goes back to the pool once the block is stored.
+        ChunkingConfig chunkingConfig = new ChunkingConfig(BLOCK_SIZE, cdcMinSize, cdcAvgSize, cdcMaxSize);
+        UploadPipeline pipeline;
         try (InputStream inputStream = file.getInputStream()) {
-            byte[] buffer = new byte[BLOCK_SIZE];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                // Calculate the hash of the block using HashUtil
-            	byte[] realBuffer = new byte[bytesRead];
-            	System.arraycopy(buffer, 0, realBuffer, 0, bytesRead);
-                String blockHash = HashUtil.calculateHash(realBuffer, bytesRead);
-                //logger.debug("Block: Hash={} byte[]={} ",blockHash, realBuffer);
-                
-                // Request the metadata node to get nodes for storing the block
-                ResponseNodesForBlock response = getNodesForBlock(blockHash);
-                logger.debug("getNodesForBlock(...) returns: {}", response.getStatus());
-                int i = 0;
-                for(DfsNode node : response.getNodes()) {
-                	logger.debug("{}      {}", i, node.getContainerUrl());
-                	i++;
+            Chunker chunker = Chunker.create(chunking, inputStream, chunkingConfig);
+            BufferPool buffers = uploadBuffers.computeIfAbsent(chunker.getMaxChunkSize(), size -> new BufferPool(size, idleBuffers));
+            pipeline = new UploadPipeline(buffers);
+            while (true) {
+                byte[] buffer = buffers.acquire();
+                int length;
+                try {
+                    length = chunker.nextChunk(buffer);
+                } catch (IOException e) {
+                    buffers.release(buffer);
+                    throw e;
                 }
-                
-                List<DfsNode> nodes = response.getNodes();
-                if (nodes.isEmpty()) {
-                    logger.info("Get nodes for block retrieved 0 nodes. Response is {}", response);
-                    continue;
-                }
-                
-                // Store the block in one of the nodes
-                boolean stored = storeBlockOnNodes(nodes, blockHash, realBuffer, bytesRead);
-                
-                
-                logger.debug("Block saved onto nodes{}", nodes);
-                
-                if (stored) {
-                    blockHashes.add(blockHash);
-                } else {
-                    logger.error("Failed to store block with hash: {}", blockHash);
+                if (length < 0) {
+                    buffers.release(buffer);
+                    break;
                 }
+                // Calculate the hash of the block using HashUtil
+                BlockHash hash = HashUtil.calculateBlockHash(buffer, 0, length);
+                pipeline.add(hash, buffer, length);
             }
         }
+        List<String> blockHashes = pipeline.finish();
+
         // Calculate the hash of the entire file using block hashes
         String fileHash = calculateFileHash(blockHashes);
         logger.info("Calculated file hash: {}", fileHash);
@@ -138,12 +270,239 @@ public class DedupeFileService {
         dfsFile.setDirectory(false);
         dfsFile.setParentHash(parentHash);
         dfsFile.setBlockHashes(blockHashes);
+        dfsFile.setBlockSizes(pipeline.getBlockSizes());
         dfsFile.setCreateTime(new Date());
         dfsFile.setLastModifiedTime(new Date());
         saveDfsFileToMetaNode(dfsFile, targetDir);
         return fileHash;
     }
 
+    // Blocks of one upload: placement is requested for a whole batch of hashes at
+    // once, then each block of the batch is shipped on its own
+    private class UploadPipeline {
+        private final BufferPool buffers;
+        private final Semaphore inFlight = new Semaphore(Math.max(1, pipelineDepth));
+        private final List<BlockHash> batchHashes = new ArrayList<>();
+        private final List<byte[]> batchBlocks = new ArrayList<>();
+        private final List<Integer> batchLengths = new ArrayList<>();
+        private final List<String> pendingHashes = new ArrayList<>();
+        private final List<Integer> pendingLengths = new ArrayList<>();
+        private final List<CompletableFuture<Boolean>> pendingStores = new ArrayList<>();
+
+        UploadPipeline(BufferPool buffers) {
+            this.buffers = buffers;
+        }
+
+        // Takes over the buffer; it is returned to the pool once the block is stored
+        void add(BlockHash hash, byte[] buffer, int length) throws IOException {
+            if (!inFlight.tryAcquire()) {
+                // Out of slots: send what is batched so far so those blocks can complete
+                flush();
+                try {
+                    acquireUploadSlot();
+                } catch (IOException e) {
+                    buffers.release(buffer);
+                    throw e;
+                }
+            }
+            batchHashes.add(hash);
+            batchBlocks.add(buffer);
+            batchLengths.add(length);
+            if (batchHashes.size() >= placementBatchSize) {
+                flush();
+            }
+        }
+
+        // Wait for every block and return the hashes in file order. A block that could
+        // not be stored fails the upload; leaving it out would save a file with a hole.
+        List<String> finish() throws IOException {
+            flush();
+            int failed = 0;
+            for (int i = 0; i < pendingStores.size(); i++) {
+                if (!awaitUpload(pendingStores.get(i))) {
+                    logger.error("Failed to store block with hash: {}", pendingHashes.get(i));
+                    failed++;
+                }
+            }
+            if (failed > 0) {
+                throw new IOException("Failed to store " + failed + " of " + pendingStores.size() + " blocks");
+            }
+            return pendingHashes;
+        }
+
+        // Sizes of the blocks returned by finish(), in the same order
+        List<Integer> getBlockSizes() {
+            return pendingLengths;
+        }
+
+        private void flush() {
+            if (batchHashes.isEmpty()) {
+                return;
+            }
+            List<BlockHash> hashes = new ArrayList<>(batchHashes);
+            List<byte[]> blocks = new ArrayList<>(batchBlocks);
+            List<Integer> lengths = new ArrayList<>(batchLengths);
+            batchHashes.clear();
+            batchBlocks.clear();
+            batchLengths.clear();
+
+            List<String> hexHashes = hashes.stream().map(BlockHash::toHex).collect(Collectors.toList());
+            CompletableFuture<List<ResponseNodesForBlock>> placements =
+                CompletableFuture.supplyAsync(() -> getNodesForBlocks(hexHashes), uploadExecutor);
+
+            List<CompletableFuture<Boolean>> stores = new ArrayList<>();
+            List<Runnable> releases = new ArrayList<>();
+            for (int i = 0; i < hashes.size(); i++) {
+                byte[] block = blocks.get(i);
+                // Replicas past the quorum may still be sending the buffer after the block
+                // counts as stored, so it goes back to the pool once the last one is done
+                AtomicBoolean returned = new AtomicBoolean();
+                releases.add(() -> {
+                    if (returned.compareAndSet(false, true)) {
+                        buffers.release(block);
+                    }
+                });
+                CompletableFuture<Boolean> stored = new CompletableFuture<>();
+                stored.whenComplete((result, e) -> inFlight.release());
+                stores.add(stored);
+                pendingHashes.add(hexHashes.get(i)); // Hex form for the metanode and DfsFile
+                pendingLengths.add(lengths.get(i));
+                pendingStores.add(stored);
+            }
+
+            placements
+                .thenAcceptAsync(responses -> shipBatch(hashes, blocks, lengths, responses, stores, releases), uploadExecutor)
+                .exceptionally(e -> {
+                    logger.error("Error uploading {} blocks: {}", hashes.size(), e.getMessage());
+                    for (int i = 0; i < stores.size(); i++) {
+                        stores.get(i).complete(false);
+                        releases.get(i).run();
+                    }
+                    return null;
+                });
+        }
+
+        private void acquireUploadSlot() throws IOException {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Upload interrupted", e);
+            }
+        }
+    }
+
+    // Ship a placed batch of blocks. Each remote node gets all of its blocks of the batch
+    // in one store-batch request and blocks for this node are stored directly. A block's
+    // future completes once its write quorum is reached or can no longer be.
+    void shipBatch(List<BlockHash> hashes, List<byte[]> blocks, List<Integer> lengths,
+            List<ResponseNodesForBlock> responses, List<CompletableFuture<Boolean>> stores, List<Runnable> releases) {
+        ReplicaWrites[] writes = new ReplicaWrites[hashes.size()];
+        Map<String, NodeBatch> remoteBatches = new LinkedHashMap<>();
+        List<Integer> localBlocks = new ArrayList<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            ResponseNodesForBlock response = responses.get(i);
+            logger.debug("getNodesForBlock(...) returns: {}", response.getStatus());
+            List<DfsNode> nodes = response.getNodes();
+            if (nodes == null || nodes.isEmpty()) {
+                releases.get(i).run();
+                if (response.getStatus() == ResponseNodesForBlock.Status.ALREADY_ENOUGH_COPIES) {
+                    // Stored on enough nodes already; the file still needs the block in its list
+                    logger.debug("Block {} already has enough copies.", hashes.get(i));
+                    stores.get(i).complete(true);
+                } else {
+                    logger.info("Get nodes for block retrieved 0 nodes. Response is {}", response);
+                    stores.get(i).complete(false);
+                }
+                continue;
+            }
+
+            writes[i] = new ReplicaWrites(nodes.size(), writeQuorum, stores.get(i), releases.get(i));
+            for (DfsNode node : nodes) {
+                if (node.getContainerUrl().equals(config.getContainerUrl())) {
+                    localBlocks.add(i);
+                } else {
+                    remoteBatches.computeIfAbsent(node.getContainerUrl(), url -> new NodeBatch(node))
+                        .add(hashes.get(i), blocks.get(i), lengths.get(i), writes[i]);
+                }
+            }
+        }
+
+        for (NodeBatch batch : remoteBatches.values()) {
+            CompletableFuture
+                .supplyAsync(() -> storeBlocksOnNode(batch.node, batch.hashes, batch.blocks, batch.lengths), replicaExecutor)
+                .exceptionally(e -> Collections.nCopies(batch.hashes.size(), false))
+                .thenAccept(results -> {
+                    for (int i = 0; i < results.size(); i++) {
+                        batch.writes.get(i).record(results.get(i));
+                    }
+                });
+        }
+        for (int i : localBlocks) {
+            writes[i].record(storeBlockOnLocalNode(hashes.get(i), blocks.get(i), lengths.get(i)));
+        }
+    }
+
+    // Blocks of one upload batch headed for the same remote node
+    private static class NodeBatch {
+        private final DfsNode node;
+        private final List<BlockHash> hashes = new ArrayList<>();
+        private final List<byte[]> blocks = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+        private final List<ReplicaWrites> writes = new ArrayList<>();
+
+        NodeBatch(DfsNode node) {
+            this.node = node;
+        }
+
+        void add(BlockHash hash, byte[] block, int length, ReplicaWrites write) {
+            hashes.add(hash);
+            blocks.add(block);
+            lengths.add(length);
+            writes.add(write);
+        }
+    }
+
+    // Replica writes of one block. Completes stored with true once the quorum has
+    // succeeded, or with false once it no longer can. onBlockReleased runs after the
+    // last write, when nothing reads the block data any more.
+    private static class ReplicaWrites {
+        private final int targets;
+        private final int quorum;
+        private final CompletableFuture<Boolean> stored;
+        private final Runnable onBlockReleased;
+        private final AtomicInteger successes = new AtomicInteger();
+        private final AtomicInteger finished = new AtomicInteger();
+
+        ReplicaWrites(int targets, int writeQuorum, CompletableFuture<Boolean> stored, Runnable onBlockReleased) {
+            this.targets = targets;
+            this.quorum = Math.min(Math.max(1, writeQuorum), targets);
+            this.stored = stored;
+            this.onBlockReleased = onBlockReleased;
+        }
+
+        void record(boolean success) {
+            if (success && successes.incrementAndGet() == quorum) {
+                stored.complete(true);
+            }
+            if (finished.incrementAndGet() == targets) {
+                stored.complete(successes.get() >= quorum);
+                onBlockReleased.run();
+            }
+        }
+    }
+
+    private static boolean awaitUpload(CompletableFuture<Boolean> stored) throws IOException {
+        try {
+            return stored.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Upload interrupted", e);
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
     private String saveDfsFileToMetaNode(DfsFile dfsFile, String targetDir) {
         if (metaNodeUrl == null || metaNodeUrl.trim().isEmpty()) {
             logger.error("FileController URL is not configured. Cannot save DfsFile metadata.");
@@ -169,6 +528,10 @@ public class DedupeFileService {
             );
             
             logger.info("DfsFile metadata saved successfully to MetaNode. Response: {}", response.getBody());
+            // Drop what this node cached about the file; the metanode now has the newer record
+            dfsFilesByHash.invalidate(dfsFile.getHash());
+            dfsFilesByPath.invalidate(pathKey(dfsFile.getOwner(), dfsFile.getPath()));
+            fileBlockNodes.invalidate(dfsFile.getHash());
             return response.getBody(); // Return the ID or any message from FileController
         } catch (HttpClientErrorException e) {
             logger.error("Error saving DfsFile metadata to MetaNode: {}", e.getMessage());
@@ -180,44 +543,66 @@ public class DedupeFileService {
     }
 
     public DownloadResponse downloadFile(String fileHash) {
-        logger.debug("DedupeFileService::downloadFile({})", fileHash);
+        return downloadFile(fileHash, null);
+    }
+
+    // range: the single byte range to send, or null for the whole file
+    public DownloadResponse downloadFile(String fileHash, HttpRange range) {
+        DfsFile dfsFile = getDfsFileByHash(fileHash);
+        if (dfsFile == null) {
+            return null;
+        }
+        return downloadFile(dfsFile, range);
+    }
+
+    // Download a file the caller has looked up already, e.g. by path. The name sent
+    // with it is the one of that record; several uploads of the same content share
+    // a hash but each has its own name, path and owner.
+    public DownloadResponse downloadFile(DfsFile dfsFile, HttpRange range) {
+        String fileHash = dfsFile.getHash();
+        logger.debug("DedupeFileService::downloadFile({}, {})", fileHash, range);
 
         try {
             // Fetch the list of BlockNode objects containing block data
-            ResponseEntity<List<BlockNode>> response = restTemplate.exchange(
-                    metaNodeUrl + "/metadata/file/block-nodes",
-                    HttpMethod.POST,
-                    new HttpEntity<>(fileHash),
-                    new ParameterizedTypeReference<List<BlockNode>>() {}
-            );
-
-            List<BlockNode> blockNodeList = response.getBody();
+            List<BlockNode> blockNodeList = getBlockNodes(fileHash);
             if (blockNodeList == null || blockNodeList.isEmpty()) {
                 return null;
             }
 
-            ResponseEntity<DfsFile> dfsFileResponse = restTemplate.getForEntity(
-                    metaNodeUrl + "/metadata/file/" + fileHash, DfsFile.class);
-            DfsFile dfsFile = dfsFileResponse.getBody();
-            if (dfsFile == null) {
-                return null;
+            long fileSize = dfsFile.getSize();
+            if (range == null) {
+                // Define the streaming response
+                StreamingResponseBody responseBody = isStoredLocally(blockNodeList)
+                    ? outputStream -> streamLocalBlocks(fileHash, blockNodeList, outputStream)
+                    : outputStream -> streamBlocks(fileHash, blockNodeList, fileSize, outputStream);
+                return new DownloadResponse(responseBody, dfsFile.getName(), fileSize);
             }
 
-            // Define the streaming response
-            StreamingResponseBody responseBody = outputStream -> {
-                for (BlockNode blockNode : blockNodeList) {
-                	try {
-	                    byte[] blockData = readABlock(blockNode);
-	                    outputStream.write(blockData);
-	                    outputStream.flush();
-                	} catch (Exception e) {
-                		e.printStackTrace();
-                        logger.error("An error occurred: {}", e.getMessage(), e);
-                	}
-                }
-            };
+            long start = range.getRangeStart(fileSize);
+            long end = range.getRangeEnd(fileSize);
+            if (start >= fileSize || start > end) {
+                return DownloadResponse.unsatisfiable(dfsFile.getName(), fileSize);
+            }
 
-            return new DownloadResponse(responseBody, dfsFile.getName());
+            // Only the blocks overlapping the range are fetched. Without block offsets
+            // the file is streamed from its first block and the bytes before the range
+            // are skipped.
+            int first = 0;
+            int last = blockNodeList.size() - 1;
+            long skip = start;
+            long[] offsets = blockOffsets(dfsFile, blockNodeList.size());
+            if (offsets != null) {
+                first = blockIndexAt(offsets, start);
+                last = blockIndexAt(offsets, end);
+                skip = start - offsets[first];
+            }
+            List<BlockNode> rangeBlocks = blockNodeList.subList(first, last + 1);
+            long rangeBlockBytes = offsets != null ? offsets[last + 1] - offsets[first] : fileSize;
+            long length = end - start + 1;
+            long toSkip = skip;
+            StreamingResponseBody responseBody = outputStream ->
+                streamBlocks(fileHash, rangeBlocks, rangeBlockBytes, new SliceOutputStream(outputStream, toSkip, length));
+            return new DownloadResponse(responseBody, dfsFile.getName(), fileSize, start, length);
 
         } catch (Exception e) {
             logger.error("An error occurred: {}", e.getMessage(), e);
@@ -225,7 +610,177 @@ public class DedupeFileService {
         }
     }
 
-    
+    // Start offset of each block plus the file size at the end, or null when the block
+    // sizes are not recorded. Files stored before sizes were recorded, CDC uploads among
+    // them, may have blocks of any size, so their offsets cannot be worked out.
+    long[] blockOffsets(DfsFile dfsFile, int blockCount) {
+        List<Integer> sizes = dfsFile.getBlockSizes();
+        if (sizes == null || sizes.size() != blockCount) {
+            return null;
+        }
+        long[] offsets = new long[blockCount + 1];
+        for (int i = 0; i < blockCount; i++) {
+            offsets[i + 1] = offsets[i] + sizes.get(i);
+        }
+        return offsets[blockCount] == dfsFile.getSize() ? offsets : null;
+    }
+
+    // Index of the block holding the given byte
+    private static int blockIndexAt(long[] offsets, long position) {
+        int index = Arrays.binarySearch(offsets, position);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private boolean isStoredLocally(List<BlockNode> blockNodes) {
+        return blockNodes.stream().allMatch(blockNode ->
+            blockNode.getNodeUrls() != null && blockNode.getNodeUrls().contains(config.getContainerUrl()));
+    }
+
+    // Write a file whose blocks are all on this node. Unencrypted blocks are copied from
+    // their data files in small chunks rather than read whole into a block-sized array;
+    // the rest, and blocks the local index turns out not to have, are read the usual way.
+    void streamLocalBlocks(String fileHash, List<BlockNode> blockNodes, OutputStream outputStream) throws IOException {
+        WritableByteChannel channel = Channels.newChannel(outputStream);
+        for (BlockNode blockNode : blockNodes) {
+            try (BlockRegion region = blockService.openBlockRegion(blockNode.getHash())) {
+                if (region != null) {
+                    region.transferTo(channel);
+                    continue;
+                }
+            } catch (NoSuchElementException e) {
+                logger.warn("Block {} is listed on this node but not stored here", blockNode.getHash());
+                fileBlockNodes.invalidate(fileHash);
+            }
+
+            byte[] blockData;
+            try {
+                blockData = readABlock(blockNode);
+            } catch (NoSuchElementException | NoSuchAlgorithmException e) {
+                logger.error("Failed to read block {}: {}", blockNode.getHash(), e.getMessage());
+                blockData = null;
+            }
+            if (blockData == null) {
+                throw unreadableBlock(fileHash, blockNode);
+            }
+            outputStream.write(blockData);
+        }
+        outputStream.flush();
+    }
+
+    // Write the blocks of a file in order while the runs after them are fetched. Runs
+    // are read in parallel on the download pool as long as their estimated size fits
+    // the prefetch window; the output is flushed only when the next run is not ready.
+    void streamBlocks(String fileHash, List<BlockNode> blockNodes, long fileSize, OutputStream outputStream) throws IOException {
+        long blockBytes = Math.max(1, fileSize / Math.max(1, blockNodes.size()));
+        long windowBytes = Math.max(blockBytes, prefetchBytes);
+        // Keep several runs in the window so one slow run does not stall the stream
+        int runSize = (int) Math.max(1, Math.min(Math.max(1, readBatchSize), windowBytes / blockBytes / 4));
+
+        Deque<CompletableFuture<List<byte[]>>> inFlight = new ArrayDeque<>();
+        Deque<List<BlockNode>> inFlightRuns = new ArrayDeque<>();
+        long inFlightBytes = 0;
+        int next = 0;
+        try {
+            while (next < blockNodes.size() || !inFlight.isEmpty()) {
+                while (next < blockNodes.size()
+                        && (inFlight.isEmpty() || inFlightBytes + runSize * blockBytes <= windowBytes)) {
+                    List<BlockNode> run = blockNodes.subList(next, Math.min(next + runSize, blockNodes.size()));
+                    inFlight.add(CompletableFuture.supplyAsync(() -> readBlocks(run), downloadExecutor));
+                    inFlightRuns.add(run);
+                    inFlightBytes += run.size() * blockBytes;
+                    next += run.size();
+                }
+
+                CompletableFuture<List<byte[]>> head = inFlight.poll();
+                List<BlockNode> run = inFlightRuns.poll();
+                if (!head.isDone()) {
+                    outputStream.flush(); // About to wait: hand the client what we have
+                }
+                List<byte[]> blocks = head.join();
+                inFlightBytes -= run.size() * blockBytes;
+                for (int i = 0; i < blocks.size(); i++) {
+                    if (blocks.get(i) == null) {
+                        throw unreadableBlock(fileHash, run.get(i));
+                    }
+                    outputStream.write(blocks.get(i));
+                }
+            }
+            outputStream.flush();
+        } finally {
+            // The client went away or a write failed: stop fetching what is left
+            inFlight.forEach(future -> future.cancel(false));
+        }
+    }
+
+    // A block that cannot be read ends the download. Skipping it would send the client
+    // a body with a hole in it under the status and length of the complete one.
+    private IOException unreadableBlock(String fileHash, BlockNode blockNode) {
+        logger.error("Unable to read block {} of file {}", blockNode.getHash(), fileHash);
+        fileBlockNodes.invalidate(fileHash); // The locations are stale; ask again next time
+        return new IOException("Unable to read block " + blockNode.getHash() + " of file " + fileHash);
+    }
+
+    // Read a run of blocks in order. Blocks on this node are read directly, without
+    // filling the block cache, so streaming a large file does not evict hot blocks; the rest are
+    // fetched with one read-batch request per remote node. Blocks that could not be read
+    // that way are tried one by one on each of their nodes. Unreadable blocks are null.
+    List<byte[]> readBlocks(List<BlockNode> blockNodes) {
+        byte[][] blocks = new byte[blockNodes.size()][];
+        Map<String, List<Integer>> remoteReads = new LinkedHashMap<>();
+        for (int i = 0; i < blockNodes.size(); i++) {
+            BlockNode blockNode = blockNodes.get(i);
+            Set<String> nodeUrls = blockNode.getNodeUrls();
+            if (nodeUrls == null || nodeUrls.isEmpty()) {
+                continue;
+            }
+            if (nodeUrls.contains(config.getContainerUrl())) {
+                try {
+                    blocks[i] = blockService.readBlockUncached(blockNode.getHash());
+                } catch (IOException | NoSuchElementException | NoSuchAlgorithmException e) {
+                    logger.error("Failed to read block {} locally: {}", blockNode.getHash(), e.getMessage());
+                }
+            } else {
+                String nodeUrl = replicaSelector.rank(nodeUrls, null).get(0);
+                remoteReads.computeIfAbsent(nodeUrl, url -> new ArrayList<>()).add(i);
+            }
+        }
+
+        // The batches to different nodes go out together
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (Map.Entry<String, List<Integer>> entry : remoteReads.entrySet()) {
+            List<Integer> indexes = entry.getValue();
+            List<String> hashes = indexes.stream().map(i -> blockNodes.get(i).getHash()).collect(Collectors.toList());
+            batches.add(CompletableFuture
+                .supplyAsync(() -> readBlocksFromRemoteNode(hashes, entry.getKey()), readExecutor)
+                .thenAccept(results -> {
+                    if (results != null) {
+                        for (int j = 0; j < indexes.size(); j++) {
+                            blocks[indexes.get(j)] = results.get(j);
+                        }
+                    }
+                }));
+        }
+        try {
+            CompletableFuture.allOf(batches.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            logger.error("Error reading a block batch: {}", e.getMessage()); // Those blocks are retried one by one
+        }
+
+        for (int i = 0; i < blocks.length; i++) {
+            if (blocks[i] == null) {
+                try {
+                    blocks[i] = readABlock(blockNodes.get(i));
+                } catch (IOException | NoSuchElementException | NoSuchAlgorithmException e) {
+                    logger.error("Failed to read block {}: {}", blockNodes.get(i).getHash(), e.getMessage());
+                }
+            }
+        }
+        return Arrays.asList(blocks);
+    }
+
+    // Read a block from this node if it has it, otherwise from the replica the selector
+    // ranks first. A read that takes much longer than that node usually does is hedged
+    // with a second read from the next replica, and whichever answers first wins.
     public byte[] readABlock(BlockNode blockNode) throws NoSuchElementException, NoSuchAlgorithmException, IOException {
         Set<String> nodeUrls = blockNode.getNodeUrls();
 
@@ -235,70 +790,147 @@ public class DedupeFileService {
             return null; 
         }
 
-        // Attempt to read the block from each node URL until successful
-        for (String nodeUrl : nodeUrls) {
+        List<String> ranked = replicaSelector.rank(nodeUrls, config.getContainerUrl());
+        if (ranked.get(0).equals(config.getContainerUrl())) {
             try {
-                byte[] thisBlock;
+                logger.debug("Attempting to read block {} from local node: {}", blockNode.getHash(), ranked.get(0));
+                byte[] thisBlock = blockService.readBlock(blockNode.getHash());
+                if (thisBlock != null) {
+                    return thisBlock;
+                }
+            } catch (IOException | NoSuchElementException | NoSuchAlgorithmException e) {
+                logger.error("Failed to read block {} from local node: {}", blockNode.getHash(), e.getMessage());
+            }
+            ranked = ranked.subList(1, ranked.size());
+        }
 
-                if (nodeUrl.equals(config.getContainerUrl())) {
-                    logger.debug("Attempting to read block {} from local node: {}", blockNode.getHash(), nodeUrl);
-                    thisBlock = blockService.readBlock(blockNode.getHash());
-                } else {
-                    logger.debug("Attempting to read block {} from remote node: {}", blockNode.getHash(), nodeUrl);
-                    thisBlock = readBlockFromRemoteNode(blockNode.getHash(), nodeUrl);
+        byte[] thisBlock = readBlockHedged(blockNode.getHash(), ranked);
+        if (thisBlock == null) {
+            // If none of the nodes were able to provide the block, return null
+            logger.warn("Unable to retrieve block {} from any available nodes", blockNode.getHash());
+        }
+        return thisBlock;
+    }
+
+    // Try remote replicas in order. The next one is started when the current ones have
+    // failed, or, with hedging on, when they take longer than the hedge delay.
+    private byte[] readBlockHedged(String blockHash, List<String> nodeUrls) {
+        if (nodeUrls.isEmpty()) {
+            return null;
+        }
+        ExecutorCompletionService<byte[]> reads = new ExecutorCompletionService<>(readExecutor);
+        List<Future<byte[]>> started = new ArrayList<>();
+        int pending = 0;
+        try {
+            while (true) {
+                if (pending == 0) {
+                    if (started.size() == nodeUrls.size()) {
+                        return null;
+                    }
+                    started.add(startRead(reads, blockHash, nodeUrls.get(started.size())));
+                    pending++;
                 }
 
-                // If the block was successfully read, return it
-                if (thisBlock != null) {
-                    logger.debug("Successfully read block {} from node: {}", blockNode.getHash(), nodeUrl);
-                    return thisBlock;
+                Future<byte[]> done;
+                if (hedgeReads && started.size() < nodeUrls.size()) {
+                    done = reads.poll(hedgeDelayMillis(nodeUrls.get(started.size() - 1)), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        logger.debug("Hedging read of block {} with {}", blockHash, nodeUrls.get(started.size()));
+                        started.add(startRead(reads, blockHash, nodeUrls.get(started.size())));
+                        pending++;
+                        continue;
+                    }
                 } else {
-                    logger.warn("Block data is null for block {} on node: {}", blockNode.getHash(), nodeUrl);
+                    done = reads.take();
+                }
+                pending--;
+
+                try {
+                    byte[] thisBlock = done.get();
+                    if (thisBlock != null) {
+                        return thisBlock;
+                    }
+                } catch (ExecutionException e) {
+                    logger.error("Failed to read block {}: {}", blockHash, e.getCause().getMessage());
                 }
-            } catch (IOException | NoSuchElementException | NoSuchAlgorithmException e) {
-                logger.error("Failed to read block {} from node {}: {}", blockNode.getHash(), nodeUrl, e.getMessage());
-                // Log and continue to the next node
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            // The losers of a hedged read finish in the background
+            started.forEach(future -> future.cancel(false));
         }
+    }
 
-        // If none of the nodes were able to provide the block, return null
-        logger.warn("Unable to retrieve block {} from any available nodes", blockNode.getHash());
-        return null;
+    private Future<byte[]> startRead(ExecutorCompletionService<byte[]> reads, String blockHash, String nodeUrl) {
+        logger.debug("Attempting to read block {} from remote node: {}", blockHash, nodeUrl);
+        return reads.submit(() -> readBlockFromRemoteNode(blockHash, nodeUrl));
     }
 
-    public String getNodeForRequest(String requestNodeUrl, BlockNode blockNode) {
-    	List<String> nodeUrls = new ArrayList<>(blockNode.getNodeUrls());
-        int N = nodeUrls.size();
-        // Generate a unique index for each request for the same block
-        int nodeIndex = Math.abs(requestNodeUrl.hashCode()) % N;
-        return nodeUrls.get(nodeIndex); // Return the node URL assigned for this request
+    // A few times the node's usual latency, but never below the configured floor
+    private long hedgeDelayMillis(String nodeUrl) {
+        return Math.max(hedgeMinDelay, TimeUnit.NANOSECONDS.toMillis(3 * replicaSelector.getLatencyNanos(nodeUrl)));
     }
-    
-    byte[] readBlockFromRemoteNode(String blockHash, String nodeUrl) {
-        String readUrl = "";
-        
-        if (config.isRunningInDocker()) {
-            readUrl = nodeUrl + "/dfs/block/read/" + blockHash;
-        	logger.debug("This node is running in docker, use {} to access the block.", readUrl);
-        	
-        } else {
-            String endpointUrl = metaNodeUrl + "/metadata/get-localurl-for-node";
+
+    // Read blocks from one node with a single read-batch request. Returns the data in
+    // request order with null for blocks the node does not have, or null altogether when
+    // the request failed or the node has no batch endpoint.
+    List<byte[]> readBlocksFromRemoteNode(List<String> blockHashes, String nodeUrl) {
+        if (singleReadNodes.contains(nodeUrl)) {
+            return null;
+        }
+        long start = replicaSelector.begin(nodeUrl);
+        boolean success = false;
+        try {
+            String baseUrl = getReadBaseUrl(nodeUrl);
+            if (baseUrl == null) {
+                return null;
+            }
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<String> requestEntity = new HttpEntity<>(nodeUrl, headers);
-
-            //get the localUrl for the node.
-            ResponseEntity<String> response2 = restTemplate.exchange(endpointUrl, HttpMethod.POST, requestEntity, String.class );
-            if (response2.getStatusCode().is2xxSuccessful() && response2.getBody() != null) {
-            	String localUrl = response2.getBody();
-            	readUrl = localUrl + "/dfs/block/read/" + blockHash;
-            	logger.debug("This node is running locally, use {} to access the block.", readUrl);
-            	
-            } else {
-            	logger.error("Can not get node from metanode with containerUrl({}).", nodeUrl);
-            	return null;
+            headers.setAccept(List.of(MediaType.APPLICATION_OCTET_STREAM));
+            ResponseEntity<byte[]> response = restTemplate.exchange(
+                baseUrl + "/dfs/block/read-batch", HttpMethod.POST, new HttpEntity<>(blockHashes, headers), byte[].class);
+            if (response.getStatusCode() != HttpStatus.OK || response.getBody() == null) {
+                logger.warn("Batch read of {} blocks from {} returned {}", blockHashes.size(), nodeUrl, response.getStatusCode());
+                return null;
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(response.getBody()));
+            List<byte[]> blocks = new ArrayList<>(blockHashes.size());
+            for (String blockHash : blockHashes) {
+                BlockFrames.Frame frame = BlockFrames.read(in, Integer.MAX_VALUE);
+                if (frame == null || !frame.getHash().toHex().equalsIgnoreCase(blockHash)) {
+                    logger.warn("Batch read from {} is out of step at block {}", nodeUrl, blockHash);
+                    return null;
+                }
+                blocks.add(frame.getData());
             }
+            success = true;
+            return blocks;
+        } catch (HttpClientErrorException.NotFound | HttpClientErrorException.MethodNotAllowed e) {
+            logger.info("Node {} has no batch read endpoint; reading blocks one by one from now on.", nodeUrl);
+            singleReadNodes.add(nodeUrl);
+        } catch (ResourceAccessException e) {
+            logger.error("Error reading {} blocks from {}: {}", blockHashes.size(), nodeUrl, e.getMessage());
+            nodeAddresses.invalidate(nodeUrl);
+        } catch (RestClientException | IOException e) {
+            logger.error("Error reading {} blocks from {}: {}", blockHashes.size(), nodeUrl, e.getMessage());
+        } finally {
+            replicaSelector.end(nodeUrl, start, success, blockHashes.size());
         }
+        return null;
+    }
+
+    byte[] readBlockFromRemoteNode(String blockHash, String nodeUrl) {
+        String baseUrl = getReadBaseUrl(nodeUrl);
+        if (baseUrl == null) {
+            return null;
+        }
+        String readUrl = baseUrl + "/dfs/block/read/" + blockHash;
+        long start = replicaSelector.begin(nodeUrl);
+        boolean success = false;
         
         try {
             // Attempt to download the block data
@@ -307,18 +939,56 @@ public class DedupeFileService {
             
             if (blockResponse.getStatusCode() == HttpStatus.OK && blockResponse.getBody() != null) {
                 //logger.debug("Block data read: {}", new String(blockResponse.getBody()));
+                success = true;
                 return blockResponse.getBody();
                 
             } else {
                 logger.debug("Failed to read block from {}", readUrl);
                 return null;
             }
+        } catch (ResourceAccessException e) {
+            // The node could not be reached at that address; look it up again next time
+            logger.error("Error reading block {} from {}: {}", blockHash, readUrl, e.getMessage());
+            nodeAddresses.invalidate(nodeUrl);
+            return null;
         } catch (RestClientException e) {
             e.printStackTrace();
             return null;
+        } finally {
+            replicaSelector.end(nodeUrl, start, success, 1);
         }
     }
     
+    // Base URL to reach a node at: its container URL inside docker, otherwise the
+    // local URL the metanode knows for it. Null if the metanode cannot say.
+    private String getReadBaseUrl(String nodeUrl) {
+        if (config.isRunningInDocker()) {
+            logger.debug("This node is running in docker, use {} to access blocks.", nodeUrl);
+            return nodeUrl;
+        }
+
+        String cachedUrl = nodeAddresses.get(nodeUrl);
+        if (cachedUrl != null) {
+            return cachedUrl;
+        }
+
+        String endpointUrl = metaNodeUrl + "/metadata/get-localurl-for-node";
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<String> requestEntity = new HttpEntity<>(nodeUrl, headers);
+
+        //get the localUrl for the node.
+        ResponseEntity<String> response = restTemplate.exchange(endpointUrl, HttpMethod.POST, requestEntity, String.class );
+        if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+            String localUrl = response.getBody();
+            logger.debug("This node is running locally, use {} to access blocks.", localUrl);
+            nodeAddresses.put(nodeUrl, localUrl);
+            return localUrl;
+        }
+        logger.error("Can not get node from metanode with containerUrl({}).", nodeUrl);
+        return null;
+    }
+
     ResponseNodesForBlock getNodesForBlock(String blockHash) {
         logger.debug("Starting getNodesForBlock with blockHash: {}", blockHash);
         
@@ -350,6 +1020,9 @@ public class DedupeFileService {
             // Log the response status and body if the request is successful
             logger.debug("Received response with status: {} and body: {}", response.getStatusCode(), response.getBody());
 
+            if (response.getBody() != null) {
+                nodeAddresses.putAll(response.getBody().getNodes());
+            }
             return response.getBody();
         } catch (HttpClientErrorException e) {
             // Log detailed information about the HTTP error
@@ -366,74 +1039,169 @@ public class DedupeFileService {
     }
 
 
-    boolean storeBlockOnNodes(List<DfsNode> nodes, String hash, byte[] block, int bytesRead) {
-    	List<String> containerUrls = nodes.stream()
-    		    .map(DfsNode::getContainerUrl) // Get containerUrl for each DfsNode
-    		    .collect(Collectors.toList()); // Collect results into a List<String>
-    	
-        logger.debug("DedupFileService::storeBlockOnNodes({}, {})", containerUrls, hash);
-        logger.debug("block size={}", bytesRead);
-        //logger.debug("byte[]={}", new String(block));
+    // Placement for many blocks in one metanode call, in the order of the hashes. Falls back
+    // to one call per block when the metanode does not offer the batch endpoint.
+    List<ResponseNodesForBlock> getNodesForBlocks(List<String> blockHashes) {
+        if (batchPlacementSupported) {
+            try {
+                HttpHeaders headers = new HttpHeaders();
+                headers.setContentType(MediaType.APPLICATION_JSON);
+                RequestNodesForBlocks request = new RequestNodesForBlocks(blockHashes, config.getContainerUrl());
+
+                ResponseEntity<List<ResponseNodesForBlock>> response = restTemplate.exchange(
+                    metaNodeUrl + "/metadata/block/nodes-for-blocks",
+                    HttpMethod.POST,
+                    new HttpEntity<>(request, headers),
+                    new ParameterizedTypeReference<List<ResponseNodesForBlock>>() {}
+                );
+
+                List<ResponseNodesForBlock> placements = response.getBody();
+                if (placements != null && placements.size() == blockHashes.size()) {
+                    placements.forEach(placement -> nodeAddresses.putAll(placement.getNodes()));
+                    return placements;
+                }
+                logger.warn("Batch placement returned {} results for {} hashes; asking per block.",
+                    placements == null ? 0 : placements.size(), blockHashes.size());
+            } catch (HttpClientErrorException.NotFound | HttpClientErrorException.MethodNotAllowed e) {
+                logger.info("Metanode has no batch placement endpoint; asking per block from now on.");
+                batchPlacementSupported = false;
+            } catch (Exception e) {
+                logger.error("Error fetching nodes for {} blocks: {}", blockHashes.size(), e.getMessage());
+            }
+        }
+
+        return blockHashes.stream().map(this::getNodesForBlock).collect(Collectors.toList());
+    }
+
+    // Store blocks on one remote node with a single store-batch request and return
+    // whether each one was stored. Nodes without the batch endpoint get one request per block.
+    List<Boolean> storeBlocksOnNode(DfsNode node, List<BlockHash> hashes, List<byte[]> blocks, List<Integer> lengths) {
+        String nodeUrl = node.getContainerUrl();
+        if (!singleStoreNodes.contains(nodeUrl)) {
+            String baseUrl = config.isRunningInDocker() ? node.getContainerUrl() : node.getLocalUrl();
+            BlockFramesResource frames = new BlockFramesResource();
+            for (int i = 0; i < hashes.size(); i++) {
+                frames.add(hashes.get(i), blocks.get(i), lengths.get(i));
+            }
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+
+            try {
+                ResponseEntity<List<ResponseStoreBlock>> response = restTemplate.exchange(
+                    baseUrl + "/dfs/block/store-batch",
+                    HttpMethod.POST,
+                    new HttpEntity<>(frames, headers),
+                    new ParameterizedTypeReference<List<ResponseStoreBlock>>() {}
+                );
+
+                List<ResponseStoreBlock> results = response.getBody();
+                if (results == null || results.size() != hashes.size()) {
+                    logger.warn("Batch store on {} returned {} results for {} blocks.",
+                        nodeUrl, results == null ? 0 : results.size(), hashes.size());
+                    return Collections.nCopies(hashes.size(), false);
+                }
+                List<Boolean> stored = new ArrayList<>();
+                for (ResponseStoreBlock result : results) {
+                    if (result.getStatus() != ResponseStoreBlock.Status.STORED) {
+                        logger.warn("Node {} did not store block {}: {}", nodeUrl, result.getHash(), result.getStatus());
+                    }
+                    stored.add(result.getStatus() == ResponseStoreBlock.Status.STORED);
+                }
+                logger.debug("Stored a batch of {} blocks on node {}", hashes.size(), nodeUrl);
+                return stored;
+            } catch (HttpClientErrorException.NotFound | HttpClientErrorException.MethodNotAllowed e) {
+                logger.info("Node {} has no batch store endpoint; storing blocks one by one from now on.", nodeUrl);
+                singleStoreNodes.add(nodeUrl);
+            } catch (Exception e) {
+                logger.error("Error storing {} blocks on node {}: {}", hashes.size(), nodeUrl, e.getMessage());
+                return Collections.nCopies(hashes.size(), false);
+            }
+        }
+
+        List<Boolean> stored = new ArrayList<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            HttpEntity<Resource> request = storeBlockBytesRequest(blocks.get(i), lengths.get(i));
+            stored.add(storeBlockOnNode(node, hashes.get(i), blocks.get(i), lengths.get(i), request));
+        }
+        return stored;
+    }
+
+    // The binary store request for block[0, length), sent straight from the buffer
+    private static HttpEntity<Resource> storeBlockBytesRequest(byte[] block, int length) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        return new HttpEntity<>(new ByteSliceResource(block, 0, length), headers);
+    }
+
+    // The JSON store request for block[0, length), for nodes without the binary endpoint.
+    // The data is base64-encoded straight from the buffer into a body allocated once.
+    private HttpEntity<Resource> storeBlockRequest(BlockHash hash, byte[] block, int length) throws IOException {
+        ByteArrayBuilder body = new ByteArrayBuilder((length + 2) / 3 * 4 + 128);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(body)) {
+            generator.writeStartObject();
+            generator.writeStringField("hash", hash.toHex());
+            generator.writeFieldName("block");
+            generator.writeBinary(block, 0, length);
+            generator.writeEndObject();
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        Resource content = body.size() == body.getCurrentSegmentLength()
+            ? new ByteSliceResource(body.getCurrentSegment(), 0, body.size())
+            : new ByteArrayResource(body.toByteArray());
+        return new HttpEntity<>(content, headers);
+    }
 
-        // Validate inputs early and return false if invalid
-        if (nodes == null || nodes.isEmpty() || hash == null || bytesRead <= 0) {
-            logger.warn("Invalid input parameters for storing block: nodes={}, hash={}, bytesRead={}", nodes, hash, bytesRead);
+    private boolean storeBlockOnLocalNode(BlockHash hash, byte[] block, int length) {
+        try {
+            logger.debug("Store block locally.");
+            blockService.storeBlockLocally(hash, block, length, false);
+            return true;
+        } catch (Exception e) {
+            logger.error("Error occurred while storing block locally {}: {}", hash, e.getMessage());
             return false;
         }
+    }
+
+    private boolean storeBlockOnNode(DfsNode node, BlockHash hash, byte[] block, int length, HttpEntity<Resource> request) {
+        logger.debug("Attempting to store block on node: {}", node.getContainerUrl());
 
-        boolean success = false; // Variable to track if any node successfully stored the block
-
-	     // Loop through each node and attempt to store the block
-	     for (DfsNode node : nodes) {
-	         logger.debug("Attempting to store block on node: {}", node.getContainerUrl());
-	         
-	         try {
-	             // Create a truncated version of the block to store
-	             byte[] truncatedBlock = Arrays.copyOf(block, bytesRead);
-	             RequestStoreBlock requestStoreBlock = new RequestStoreBlock(hash, truncatedBlock);
-	             HttpEntity<RequestStoreBlock> request = new HttpEntity<>(requestStoreBlock);
-	             
-	             // if the node is current node, save locally.
-	             String nodeUrl = node.getContainerUrl();
-	             if (nodeUrl.equals(config.getContainerUrl())) {
-	                 // Save locally
-	                 logger.debug("Store block locally.");
-	                 blockService.storeBlockLocally(hash, truncatedBlock, false);
-	                 success = true; // Mark success since we stored locally
-	                 
-	             } else {
-	                 logger.debug("Store block on another node {}", nodeUrl);
-	                 String baseUrl = config.isRunningInDocker() ? node.getContainerUrl() : node.getLocalUrl();
-	                 String url = baseUrl + "/dfs/block/store";
-	                 logger.debug("Request {} to store the block data.", url);
-	                 
-	                 ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, request, String.class);
-	                 
-	                 // Check the response status
-	                 if (response.getStatusCode() == HttpStatus.CREATED) {
-	                     logger.info("Block stored successfully on node: {}. Response: {}", node.getContainerUrl(), response.getBody());
-	                     success = true; // Mark success for any successful remote storage
-	                 } else {
-	                     logger.warn("Failed to store block on node: {}. Status: {}, Response: {}",
-	                         node.getContainerUrl(), response.getStatusCode(), response.getBody());
-	                 }
-	             }
-	         } catch (HttpClientErrorException e) {
-	             logger.error("HTTP error while storing block on node {}: Status: {}, Error: {}",
-	                 node.getContainerUrl(), e.getStatusCode(), e.getResponseBodyAsString());
-	         } catch (Exception e) {
-	             logger.error("Error occurred while storing block on node {}: {}", node.getContainerUrl(), e.getMessage());
-	         }
-	     }
-	
-	     // After attempting to store on all nodes, log the outcome
-	     if (success) {
-	         logger.info("Block stored successfully on at least one node for hash: {}", hash);
-	     } else {
-	         logger.warn("Failed to store block on any node for hash: {}", hash);
-	     }
-	
-	     return success; // Return true if at least one store operation was successful
+        try {
+            String nodeUrl = node.getContainerUrl();
+            logger.debug("Store block on another node {}", nodeUrl);
+            String baseUrl = config.isRunningInDocker() ? node.getContainerUrl() : node.getLocalUrl();
+
+            ResponseEntity<String> response = null;
+            if (!jsonStoreNodes.contains(nodeUrl)) {
+                String url = baseUrl + "/dfs/block/store/" + hash.toHex();
+                logger.debug("Request {} to store the block data.", url);
+                try {
+                    response = restTemplate.exchange(url, HttpMethod.POST, request, String.class);
+                } catch (HttpClientErrorException.NotFound | HttpClientErrorException.MethodNotAllowed e) {
+                    logger.info("Node {} has no binary store endpoint; sending it JSON from now on.", nodeUrl);
+                    jsonStoreNodes.add(nodeUrl);
+                }
+            }
+            if (response == null) {
+                String url = baseUrl + "/dfs/block/store";
+                logger.debug("Request {} to store the block data.", url);
+                response = restTemplate.exchange(url, HttpMethod.POST, storeBlockRequest(hash, block, length), String.class);
+            }
+
+            // Check the response status
+            if (response.getStatusCode() == HttpStatus.CREATED) {
+                logger.info("Block stored successfully on node: {}. Response: {}", node.getContainerUrl(), response.getBody());
+                return true;
+            }
+            logger.warn("Failed to store block on node: {}. Status: {}, Response: {}",
+                node.getContainerUrl(), response.getStatusCode(), response.getBody());
+        } catch (HttpClientErrorException e) {
+            logger.error("HTTP error while storing block on node {}: Status: {}, Error: {}",
+                node.getContainerUrl(), e.getStatusCode(), e.getResponseBodyAsString());
+        } catch (Exception e) {
+            logger.error("Error occurred while storing block on node {}: {}", node.getContainerUrl(), e.getMessage());
+        }
+        return false;
     }
    
     String calculateFileHash(List<String> blockHashes) throws NoSuchAlgorithmException {
@@ -447,10 +1215,37 @@ public class DedupeFileService {
         return HashUtil.calculateHash(concatenatedHashes.toString().getBytes());
     }
 
+    // Nodes holding each block of a file, in block order
+    List<BlockNode> getBlockNodes(String fileHash) {
+        List<BlockNode> blockNodes = fileBlockNodes.get(fileHash);
+        if (blockNodes != null) {
+            return blockNodes;
+        }
+        ResponseEntity<List<BlockNode>> response = restTemplate.exchange(
+                metaNodeUrl + "/metadata/file/block-nodes",
+                HttpMethod.POST,
+                new HttpEntity<>(fileHash),
+                new ParameterizedTypeReference<List<BlockNode>>() {}
+        );
+        blockNodes = response.getBody();
+        if (blockNodes != null && !blockNodes.isEmpty()) {
+            fileBlockNodes.put(fileHash, Collections.unmodifiableList(blockNodes));
+        }
+        return blockNodes;
+    }
+
+    // The record the metanode returns for a content hash. Other uploads of the same
+    // content have their own name, path and owner, so anything that has a record by
+    // path already must not swap it for this one.
     public DfsFile getDfsFileByHash(String hash) {
+        DfsFile cached = dfsFilesByHash.get(hash);
+        if (cached != null) {
+            return cached;
+        }
         String url = metaNodeUrl + "/metadata/file/" + hash;
         try {
             ResponseEntity<DfsFile> response = restTemplate.getForEntity(url, DfsFile.class);
+            dfsFilesByHash.put(hash, response.getBody());
             return response.getBody();
         } catch (HttpClientErrorException e) {
             logger.error("Error fetching DfsFile by hash {}: {}", hash, e.getMessage());
@@ -459,6 +1254,10 @@ public class DedupeFileService {
     }
 
     public DfsFile getDfsFileByPath(String username, String fullPath) {
+        DfsFile cached = dfsFilesByPath.get(pathKey(username, fullPath));
+        if (cached != null) {
+            return cached;
+        }
         String url = metaNodeUrl + "/metadata/file/get-by-filepath";
         try {
             HttpHeaders headers = new HttpHeaders();
@@ -474,10 +1273,15 @@ public class DedupeFileService {
 
             // Make the POST request
             ResponseEntity<DfsFile> response = restTemplate.postForEntity(url, requestEntity, DfsFile.class);
+            dfsFilesByPath.put(pathKey(username, fullPath), response.getBody());
             return response.getBody();
         } catch (HttpClientErrorException e) {
             logger.error("Error fetching DfsFile by path {}: {}", fullPath, e.getMessage());
             return null;
         }
     }
+
+    private static String pathKey(String username, String fullPath) {
+        return username + ":" + fullPath;
+    }
 }
@@ -5,12 +5,35 @@ import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBo
 public class DownloadResponse {
     private StreamingResponseBody body;
     private String filename;
+    private long fileSize = -1;
+    private long rangeStart = -1;   // First byte sent for a range request, -1 for the whole file
+    private long contentLength = -1;
+    private boolean unsatisfiable;
 
     public DownloadResponse(StreamingResponseBody body, String filename) {
         this.body = body;
         this.filename = filename;
     }
 
+    public DownloadResponse(StreamingResponseBody body, String filename, long fileSize) {
+        this(body, filename);
+        this.fileSize = fileSize;
+        this.contentLength = fileSize;
+    }
+
+    public DownloadResponse(StreamingResponseBody body, String filename, long fileSize, long rangeStart, long contentLength) {
+        this(body, filename, fileSize);
+        this.rangeStart = rangeStart;
+        this.contentLength = contentLength;
+    }
+
+    // The requested range lies outside the file; there is no body to send
+    public static DownloadResponse unsatisfiable(String filename, long fileSize) {
+        DownloadResponse response = new DownloadResponse(null, filename, fileSize);
+        response.unsatisfiable = true;
+        return response;
+    }
+
     public StreamingResponseBody getBody() {
         return body;
     }
@@ -18,4 +41,29 @@ public class DownloadResponse {
     public String getFilename() {
         return filename;
     }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public boolean isUnsatisfiable() {
+        return unsatisfiable;
+    }
+
+    public boolean isPartial() {
+        return rangeStart >= 0;
+    }
+
+    public long getRangeStart() {
+        return rangeStart;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    // Value of the Content-Range header for a partial response
+    public String getContentRange() {
+        return "bytes " + rangeStart + "-" + (rangeStart + contentLength - 1) + "/" + fileSize;
+    }
 }
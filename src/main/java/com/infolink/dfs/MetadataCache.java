@@ -0,0 +1,76 @@
+package com.infolink.dfs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded LRU cache of metanode answers, each kept for a TTL. Records
+ * addressed by content hash never change and can be kept long; answers that
+ * change as blocks move or paths are overwritten get short TTLs and are
+ * invalidated as soon as they prove wrong. A TTL of zero disables the cache.
+ */
+public class MetadataCache<K, V> {
+    private final int capacity;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public MetadataCache(int capacity, long ttlMillis) {
+        this(capacity, ttlMillis, System::currentTimeMillis);
+    }
+
+    MetadataCache(int capacity, long ttlMillis, LongSupplier clock) {
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    // Cached value, or null if absent or expired
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (clock.getAsLong() >= entry.expiresAt) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        if (ttlMillis <= 0 || capacity <= 0 || value == null) {
+            return;
+        }
+        entries.put(key, new Entry<>(value, clock.getAsLong() + ttlMillis));
+
+        Iterator<Entry<V>> eldest = entries.values().iterator();
+        while (entries.size() > capacity) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
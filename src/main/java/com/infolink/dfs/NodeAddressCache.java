@@ -0,0 +1,73 @@
+package com.infolink.dfs;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import com.infolink.dfs.shared.DfsNode;
+
+/**
+ * Local URLs of peer nodes keyed by container URL, as registered with the
+ * metanode. Entries come from the node lists the metanode already sends, or
+ * from a lookup on a miss. They expire after a TTL so a restarted node is
+ * picked up again, and are dropped as soon as a request to the address fails.
+ */
+public class NodeAddressCache {
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Map<String, Entry> addresses = new ConcurrentHashMap<>();
+
+    public NodeAddressCache(long ttlMillis) {
+        this(ttlMillis, System::currentTimeMillis);
+    }
+
+    NodeAddressCache(long ttlMillis, LongSupplier clock) {
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    // Local URL of the node, or null if it is not known or has expired
+    public String get(String containerUrl) {
+        Entry entry = addresses.get(containerUrl);
+        if (entry == null) {
+            return null;
+        }
+        if (clock.getAsLong() >= entry.expiresAt) {
+            addresses.remove(containerUrl, entry);
+            return null;
+        }
+        return entry.localUrl;
+    }
+
+    public void put(String containerUrl, String localUrl) {
+        if (containerUrl != null && localUrl != null && !localUrl.isEmpty()) {
+            addresses.put(containerUrl, new Entry(localUrl, clock.getAsLong() + ttlMillis));
+        }
+    }
+
+    // Refresh from node records; records without a local URL are skipped
+    public void putAll(Collection<DfsNode> nodes) {
+        if (nodes != null) {
+            nodes.forEach(node -> put(node.getContainerUrl(), node.getLocalUrl()));
+        }
+    }
+
+    public void invalidate(String containerUrl) {
+        addresses.remove(containerUrl);
+    }
+
+    public int size() {
+        return addresses.size();
+    }
+
+    private static class Entry {
+        private final String localUrl;
+        private final long expiresAt;
+
+        Entry(String localUrl, long expiresAt) {
+            this.localUrl = localUrl;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
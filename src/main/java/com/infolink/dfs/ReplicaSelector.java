@@ -0,0 +1,141 @@
+package com.infolink.dfs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks which replica to read a block from, using what this node has seen of
+ * its peers: an exponentially weighted moving average of request latency and
+ * of the error rate, and the number of requests it has in flight to each.
+ * This node always comes first. Among the remote replicas the first choice is
+ * the cheaper of two picked at random, which spreads reads over replicas of
+ * similar cost instead of sending them all to the single best one.
+ */
+public class ReplicaSelector {
+    private static final double ALPHA = 0.2;            // Weight of the newest sample
+    private static final double ERROR_PENALTY = 10.0;   // An always-failing node costs 11x its latency
+
+    private final Map<String, NodeStats> stats = new ConcurrentHashMap<>();
+    private final Random random;
+
+    public ReplicaSelector() {
+        this(null);
+    }
+
+    // random: fixed source for tests; null uses the thread-local one
+    ReplicaSelector(Random random) {
+        this.random = random;
+    }
+
+    // The nodes in the order to try them: localUrl first if present, then the remote
+    // pick, then the others from cheapest to most expensive
+    public List<String> rank(Collection<String> nodeUrls, String localUrl) {
+        List<String> remote = new ArrayList<>(nodeUrls.size());
+        boolean hasLocal = false;
+        for (String nodeUrl : nodeUrls) {
+            if (nodeUrl.equals(localUrl)) {
+                hasLocal = true;
+            } else {
+                remote.add(nodeUrl);
+            }
+        }
+        Random rnd = random != null ? random : ThreadLocalRandom.current();
+        // Shuffled first so that ties, such as nodes not measured yet, fall in random order
+        Collections.shuffle(remote, rnd);
+        remote.sort(Comparator.comparingDouble(this::cost));
+
+        if (remote.size() > 1) {
+            int first = rnd.nextInt(remote.size());
+            int second = rnd.nextInt(remote.size() - 1);
+            if (second >= first) {
+                second++;
+            }
+            // The list is sorted, so the lower index is the cheaper of the two
+            String pick = remote.remove(Math.min(first, second));
+            remote.add(0, pick);
+        }
+
+        List<String> ranked = new ArrayList<>(remote.size() + 1);
+        if (hasLocal) {
+            ranked.add(localUrl);
+        }
+        ranked.addAll(remote);
+        return ranked;
+    }
+
+    // Note a request to the node; pass the returned start time to end()
+    public long begin(String nodeUrl) {
+        statsFor(nodeUrl).inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    // Record the outcome of a request covering the given number of blocks
+    public void end(String nodeUrl, long startNanos, boolean success, int blocks) {
+        NodeStats nodeStats = statsFor(nodeUrl);
+        nodeStats.inFlight.decrementAndGet();
+        nodeStats.record((System.nanoTime() - startNanos) / Math.max(1, blocks), success);
+    }
+
+    // Smoothed latency of one block read from the node, 0 if never measured
+    public long getLatencyNanos(String nodeUrl) {
+        NodeStats nodeStats = stats.get(nodeUrl);
+        if (nodeStats == null) {
+            return 0;
+        }
+        synchronized (nodeStats) {
+            return (long) nodeStats.latencyNanos;
+        }
+    }
+
+    public double getErrorRate(String nodeUrl) {
+        NodeStats nodeStats = stats.get(nodeUrl);
+        if (nodeStats == null) {
+            return 0;
+        }
+        synchronized (nodeStats) {
+            return nodeStats.errorRate;
+        }
+    }
+
+    // Expected time to get a block from the node now. Unmeasured nodes cost nothing,
+    // so they get tried and measured.
+    double cost(String nodeUrl) {
+        NodeStats nodeStats = stats.get(nodeUrl);
+        if (nodeStats == null) {
+            return 0;
+        }
+        synchronized (nodeStats) {
+            return nodeStats.latencyNanos * (1 + nodeStats.inFlight.get()) * (1 + ERROR_PENALTY * nodeStats.errorRate);
+        }
+    }
+
+    private NodeStats statsFor(String nodeUrl) {
+        return stats.computeIfAbsent(nodeUrl, url -> new NodeStats());
+    }
+
+    private static class NodeStats {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private double latencyNanos;    // Guarded by this
+        private double errorRate;       // Guarded by this
+        private boolean measured;       // Guarded by this
+
+        synchronized void record(long latency, boolean success) {
+            if (!measured) {
+                latencyNanos = latency;
+                errorRate = success ? 0 : 1;
+                measured = true;
+                return;
+            }
+            latencyNanos += ALPHA * (latency - latencyNanos);
+            errorRate += ALPHA * ((success ? 0 : 1) - errorRate);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.infolink.dfs;
+
+// Outcome of one block of a batch store request
+public class ResponseStoreBlock {
+    public enum Status {
+        STORED,
+        HASH_MISMATCH,  // The data does not hash to the hash it was sent under
+        REJECTED,       // No data, or more than dfs.block.max-size
+        FAILED          // The node could not write it
+    }
+
+    private String hash;
+    private Status status;
+
+    public ResponseStoreBlock() {
+    }
+
+    public ResponseStoreBlock(String hash, Status status) {
+        this.hash = hash;
+        this.status = status;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseStoreBlock{hash='" + hash + "', status=" + status + "}";
+    }
+}
@@ -0,0 +1,37 @@
+package com.infolink.dfs;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes on only a slice of what is written to it: the first skip bytes are
+ * dropped, then at most length bytes go through and the rest is dropped too.
+ * Used to cut a byte range out of whole blocks.
+ */
+public class SliceOutputStream extends FilterOutputStream {
+    private long skip;
+    private long remaining;
+
+    public SliceOutputStream(OutputStream out, long skip, long length) {
+        super(out);
+        this.skip = skip;
+        this.remaining = length;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int skipped = (int) Math.min(skip, len);
+        skip -= skipped;
+        int count = (int) Math.min(remaining, len - skipped);
+        if (count > 0) {
+            out.write(b, off + skipped, count);
+            remaining -= count;
+        }
+    }
+}
@@ -3,6 +3,9 @@ package com.infolink.dfs.bfs;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.infolink.dfs.shared.BlockHash;
 
 public class Block {
     private BlockSchema schema;
@@ -14,14 +17,24 @@ public class Block {
     }
     
     public Block(byte[] data, boolean encrypt, String hash) throws NoSuchAlgorithmException {
+        this(data, encrypt, BlockHash.fromHex(hash));
+    }
+
+    public Block(byte[] data, boolean encrypt, BlockHash hash) {
+        this(data, data.length, encrypt, hash);
+    }
+
+    // Block over the first length bytes of data, which may be a larger pooled buffer
+    public Block(byte[] data, int length, boolean encrypt, BlockHash hash) {
         this.data = data;
-        this.schema = new BlockSchema(hash, 0, 1, this.data.length, encrypt, System.currentTimeMillis(), System.currentTimeMillis());
+        this.schema = new BlockSchema(hash, 0, 1, length, encrypt, System.currentTimeMillis(), System.currentTimeMillis());
     }
 
     public BlockSchema getSchema() {
         return schema;
     }
 
+    // Only the first getSize() bytes are block data
     public byte[] getData() {
         return data;
     }
@@ -36,7 +49,8 @@ public class Block {
 
     public void encrypt(Encryptor encryptor) throws IOException {
         if (schema.isEncrypted()) {
-            data = encryptor.encrypt(data);
+            byte[] plain = data.length == schema.getSize() ? data : Arrays.copyOf(data, schema.getSize());
+            data = encryptor.encrypt(plain);
             schema.setSize(data.length); // Update size after encryption
         }
     }
@@ -49,7 +63,7 @@ public class Block {
     }
 
     public void writeTo(RandomAccessFile file) throws IOException {
-        file.write(data);
+        file.write(data, 0, schema.getSize());
     }
     
     public void readFromFile(RandomAccessFile file, Encryptor encryptor) throws IOException, NoSuchAlgorithmException {
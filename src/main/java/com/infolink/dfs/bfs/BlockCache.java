@@ -0,0 +1,227 @@
+package com.infolink.dfs.bfs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.infolink.dfs.shared.BlockHash;
+
+/**
+ * Size-bounded LRU cache of decrypted block data, kept off-heap in direct
+ * ByteBuffers so a large cache does not add to GC work. The cache is split
+ * into segments by hash to keep lock contention low. Each segment recycles
+ * the buffers of evicted blocks through per-size-class free lists, so steady
+ * state churn does not allocate direct memory.
+ */
+public class BlockCache {
+    private static final int SEGMENTS = 16;
+    private static final int MIN_CLASS_SIZE = 1024;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long maxEntrySize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BlockCache(long maxBytes) {
+        long segmentBytes = maxBytes / SEGMENTS;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentBytes);
+        }
+        // Very large blocks would flush a whole segment for one entry
+        this.maxEntrySize = segmentBytes / 4;
+    }
+
+    // Copy of the cached block data, or null on a miss
+    public byte[] get(BlockHash hash) {
+        byte[] data = segmentFor(hash).get(hash);
+        if (data == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return data;
+    }
+
+    public void put(BlockHash hash, byte[] data) {
+        if (data.length == 0 || data.length > maxEntrySize) {
+            return;
+        }
+        segmentFor(hash).put(hash, data);
+    }
+
+    public void invalidate(BlockHash hash) {
+        segmentFor(hash).remove(hash);
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public Stats getStats() {
+        long entries = 0;
+        long bytes = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                entries += segment.entries.size();
+                bytes += segment.usedBytes;
+            }
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries, bytes);
+    }
+
+    private Segment segmentFor(BlockHash hash) {
+        return segments[Math.floorMod(hash.hashCode(), SEGMENTS)];
+    }
+
+    // Eight size classes per power of two, so rounding wastes at most 12.5%
+    static int sizeClass(int length) {
+        if (length <= MIN_CLASS_SIZE) {
+            return MIN_CLASS_SIZE;
+        }
+        int step = Integer.highestOneBit(length - 1) / 8;
+        return (length + step - 1) / step * step;
+    }
+
+    private class Segment {
+        private final long capacity;
+        private final LinkedHashMap<BlockHash, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<Integer, ArrayDeque<ByteBuffer>> freeBuffers = new HashMap<>();
+        private long allocatedBytes;    // Direct memory held: cached plus free buffers
+        private long usedBytes;         // Block bytes currently cached
+
+        Segment(long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized byte[] get(BlockHash hash) {
+            ByteBuffer buffer = entries.get(hash);
+            if (buffer == null) {
+                return null;
+            }
+            byte[] data = new byte[buffer.limit()];
+            buffer.duplicate().get(data);
+            return data;
+        }
+
+        synchronized void put(BlockHash hash, byte[] data) {
+            if (entries.containsKey(hash)) {
+                return; // Content addressed: the cached bytes are already right
+            }
+            ByteBuffer buffer = allocate(sizeClass(data.length));
+            if (buffer == null) {
+                return;
+            }
+            buffer.clear();
+            buffer.put(data);
+            buffer.flip();
+            entries.put(hash, buffer);
+            usedBytes += data.length;
+        }
+
+        synchronized void remove(BlockHash hash) {
+            ByteBuffer buffer = entries.remove(hash);
+            if (buffer != null) {
+                release(buffer);
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            freeBuffers.clear();
+            allocatedBytes = 0;
+            usedBytes = 0;
+        }
+
+        // Reuse a free buffer of the class, evicting least recently used blocks as needed
+        private ByteBuffer allocate(int classSize) {
+            while (true) {
+                ArrayDeque<ByteBuffer> free = freeBuffers.get(classSize);
+                if (free != null && !free.isEmpty()) {
+                    return free.pop();
+                }
+                if (allocatedBytes + classSize <= capacity) {
+                    allocatedBytes += classSize;
+                    return ByteBuffer.allocateDirect(classSize);
+                }
+                if (!dropFreeBuffer() && !evictEldest()) {
+                    return null;
+                }
+            }
+        }
+
+        private boolean evictEldest() {
+            Iterator<ByteBuffer> eldest = entries.values().iterator();
+            if (!eldest.hasNext()) {
+                return false;
+            }
+            ByteBuffer buffer = eldest.next();
+            eldest.remove();
+            release(buffer);
+            evictions.increment();
+            return true;
+        }
+
+        // Give up a free buffer of another size class; its memory goes back once collected
+        private boolean dropFreeBuffer() {
+            for (ArrayDeque<ByteBuffer> free : freeBuffers.values()) {
+                ByteBuffer buffer = free.poll();
+                if (buffer != null) {
+                    allocatedBytes -= buffer.capacity();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void release(ByteBuffer buffer) {
+            usedBytes -= buffer.limit();
+            freeBuffers.computeIfAbsent(buffer.capacity(), size -> new ArrayDeque<>()).push(buffer);
+        }
+    }
+
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long entries;
+        private final long bytes;
+
+        public Stats(long hits, long misses, long evictions, long entries, long bytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+
+        public long getHits()       { return hits; }
+        public long getMisses()     { return misses; }
+        public long getEvictions()  { return evictions; }
+        public long getEntries()    { return entries; }
+        public long getBytes()      { return bytes; }
+
+        public double getHitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0.0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "BlockCache.Stats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", evictions=" + evictions +
+                    ", entries=" + entries +
+                    ", bytes=" + bytes +
+                    '}';
+        }
+    }
+}
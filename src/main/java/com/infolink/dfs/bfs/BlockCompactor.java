@@ -0,0 +1,65 @@
+package com.infolink.dfs.bfs;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.infolink.dfs.Config;
+
+/**
+ * Periodically removes zero-reference blocks from the storage files, at a
+ * throttled byte rate, and keeps a running total of the reclaimed space.
+ */
+@Component
+public class BlockCompactor {
+    private static final Logger logger = LoggerFactory.getLogger(BlockCompactor.class);
+
+    @Autowired
+    private BlockStorage blockStorage;
+
+    @Autowired
+    private Config config;
+
+    private final AtomicLong totalBytesReclaimed = new AtomicLong();
+    private final AtomicLong totalBlocksPurged = new AtomicLong();
+
+    @Scheduled(initialDelayString = "${dfs.storage.compaction.interval:600000}",
+               fixedDelayString = "${dfs.storage.compaction.interval:600000}")
+    public void scheduledCompaction() {
+        if (!config.isCompactionEnabled()) {
+            return;
+        }
+        try {
+            runCompaction();
+        } catch (Exception e) {
+            logger.error("Block compaction failed", e);
+        }
+    }
+
+    // Scheduled runs and manual triggers must not overlap
+    public synchronized CompactionResult runCompaction() throws IOException {
+        long startTime = System.currentTimeMillis();
+        IoThrottle throttle = new IoThrottle(config.getCompactionBytesPerSecond());
+
+        CompactionResult result = blockStorage.compact(throttle, config.getCompactionMinDeadRatio());
+        totalBytesReclaimed.addAndGet(result.getBytesReclaimed());
+        totalBlocksPurged.addAndGet(result.getBlocksPurged());
+
+        logger.info("Block compaction finished in {} ms: {} (total reclaimed={} bytes)",
+            System.currentTimeMillis() - startTime, result, totalBytesReclaimed.get());
+        return result;
+    }
+
+    public long getTotalBytesReclaimed() {
+        return totalBytesReclaimed.get();
+    }
+
+    public long getTotalBlocksPurged() {
+        return totalBlocksPurged.get();
+    }
+}
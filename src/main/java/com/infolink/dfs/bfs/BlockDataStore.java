@@ -0,0 +1,37 @@
+package com.infolink.dfs.bfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.infolink.dfs.shared.BlockHash;
+
+/**
+ * Where block bytes live on disk. BlockStorage owns the index and reference
+ * counts; a data store only places new block data and maps an indexed block
+ * back to the file region holding it.
+ */
+public interface BlockDataStore extends Closeable {
+
+    enum Mode {
+        BUCKET,     // One .bfs file per hash-prefix bucket
+        SEGMENT     // Append-only, rolling segment files
+    }
+
+    // Index file that records blocks written by this store
+    String getIndexFilePath(BlockHash hash);
+
+    // File holding the data of an indexed block
+    String getDataFilePath(BlockHash hash, BlockSchema schema);
+
+    // Write the first schema.getSize() bytes of data and set the segment and offset on the schema
+    void write(BlockHash hash, BlockSchema schema, byte[] data) throws IOException;
+
+    // Read schema.getSize() bytes of block data
+    byte[] read(BlockHash hash, BlockSchema schema) throws IOException;
+
+    // Pin the data file of an indexed block and return the region holding its bytes
+    BlockRegion openRegion(BlockHash hash, BlockSchema schema) throws IOException;
+
+    // Flush written block data in the given data file to the storage device
+    void force(String dataFilePath) throws IOException;
+}
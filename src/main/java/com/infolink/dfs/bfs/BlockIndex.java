@@ -0,0 +1,99 @@
+package com.infolink.dfs.bfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.infolink.dfs.shared.BlockHash;
+
+/**
+ * Resident hash -> index record map. It is rebuilt from the .idx files at
+ * startup and kept in sync by BlockStorage on every index write, so lookups
+ * never touch the disk.
+ */
+public class BlockIndex {
+    private static final Logger logger = LoggerFactory.getLogger(BlockIndex.class);
+    private static final String INDEX_FILE_SUFFIX = ".idx";
+    private static final int LOAD_CHUNK_RECORDS = 4096;
+
+    private final Map<BlockHash, IndexEntry> entries = new ConcurrentHashMap<>();
+
+    public IndexEntry get(BlockHash hash) {
+        return entries.get(hash);
+    }
+
+    public void put(BlockHash hash, IndexEntry entry) {
+        entries.put(hash, entry);
+    }
+
+    public void remove(BlockHash hash) {
+        entries.remove(hash);
+    }
+
+    // Live view of all entries; safe to iterate while the index changes
+    public Collection<IndexEntry> entries() {
+        return entries.values();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    // Scan every index file under rootDir and register its records. Index files of the
+    // original headerless layout are converted first; any other unreadable file fails.
+    public void load(Path rootDir) throws IOException {
+        entries.clear();
+        if (!Files.isDirectory(rootDir)) {
+            return;
+        }
+
+        List<Path> indexFiles;
+        try (Stream<Path> paths = Files.walk(rootDir)) {
+            indexFiles = paths
+                .filter(Files::isRegularFile)
+                .filter(path -> path.getFileName().toString().endsWith(INDEX_FILE_SUFFIX))
+                .collect(Collectors.toList());
+        }
+
+        for (Path indexFile : indexFiles) {
+            IndexFormat.upgradeLegacy(indexFile);
+            loadIndexFile(indexFile);
+        }
+        logger.debug("Block index loaded: {} entries from {} index files.", entries.size(), indexFiles.size());
+    }
+
+    // Read through the channel whatever the index mode: a one-off scan gains nothing
+    // from a mapping, and mapping every bucket file would exhaust the map count
+    private void loadIndexFile(Path path) throws IOException {
+        String indexFilePath = path.toString();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long recordCount = IndexFormat.open(channel, indexFilePath);
+            for (long slot = 0; slot < recordCount; ) {
+                int records = (int) Math.min(LOAD_CHUNK_RECORDS, recordCount - slot);
+                ByteBuffer chunk = ByteBuffer.wrap(ChannelIO.readFully(channel, IndexFormat.position(slot), records * IndexFormat.RECORD_SIZE));
+                for (int i = 0; i < records; i++, slot++) {
+                    BlockSchema schema = BlockSchema.readFrom(chunk);
+                    if (schema.getReferenceCount() != BlockSchema.PURGED) {
+                        entries.put(schema.getBlockHash(), new IndexEntry(indexFilePath, slot, schema));
+                    }
+                }
+            }
+        }
+    }
+}
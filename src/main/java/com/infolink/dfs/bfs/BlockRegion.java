@@ -0,0 +1,51 @@
+package com.infolink.dfs.bfs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The file region holding one stored block, with its data file pinned open.
+ * Compaction only ever replaces or deletes data files, so a pinned channel
+ * keeps reading the block's bytes after the storage lock is released, and
+ * slow transfers do not hold up writers. Close the region to unpin the file.
+ */
+public class BlockRegion implements AutoCloseable {
+    private final HandleCache.Handle<FileChannel> handle;
+    private final long position;
+    private final int length;
+
+    BlockRegion(HandleCache.Handle<FileChannel> handle, long position, int length) {
+        this.handle = handle;
+        this.position = position;
+        this.length = length;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    // Send the block bytes with FileChannel.transferTo. Only a file or socket channel
+    // target gets a kernel copy; any other channel, such as one over a servlet response
+    // stream, is fed through small heap buffers.
+    public void transferTo(WritableByteChannel target) throws IOException {
+        FileChannel channel = handle.get();
+        long sent = 0;
+        while (sent < length) {
+            long count = channel.transferTo(position + sent, length - sent, target);
+            if (count <= 0) {
+                if (position + sent >= channel.size()) {
+                    throw new EOFException("Unexpected end of file at position " + (position + sent));
+                }
+                continue;
+            }
+            sent += count;
+        }
+    }
+
+    @Override
+    public void close() {
+        handle.close();
+    }
+}
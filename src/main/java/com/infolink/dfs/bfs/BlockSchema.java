@@ -1,16 +1,31 @@
 package com.infolink.dfs.bfs;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import com.infolink.dfs.shared.BlockHash;
 
 public class BlockSchema {
-    private static final int HASH_LENGTH = 64; // SHA-256 hash length in bytes
+    private static final int HASH_LENGTH = BlockHash.LENGTH; // SHA-256 hash length in bytes
     private static final int TIMESTAMP_LENGTH = Long.BYTES; // Length of long
     private static final int REFERENCE_COUNT_LENGTH = Integer.BYTES; // Length of int
     private static final int SIZE_LENGTH = Integer.BYTES; // Length of int for size
     private static final int ENCRYPTED_LENGTH = 1; // Length of boolean
+    private static final int SEGMENT_LENGTH = Integer.BYTES; // Length of int for the segment id
+
+    // Byte position of the reference count inside a serialized record
+    public static final int REFERENCE_COUNT_POSITION = HASH_LENGTH + SEGMENT_LENGTH + Long.BYTES;
+
+    // Segment id of blocks that live in a per-bucket .bfs file
+    public static final int NO_SEGMENT = -1;
 
-    private String hash;              // Hash of the block data
+    // Reference count of a record whose block has been removed by compaction
+    public static final int PURGED = -1;
+
+    private BlockHash hash;           // Hash of the block data
+    private int segment = NO_SEGMENT; // Segment file holding the block, NO_SEGMENT for bucket files
     private long offset;              // Offset of the block in storage
     private int referenceCount;       // Count of references to this block
     private int size;                 // Size of the block data
@@ -21,6 +36,10 @@ public class BlockSchema {
 
     // Constructor
     public BlockSchema(String hash, long offset, int referenceCount, int size, boolean encrypted, long createdTimestamp, long modifiedTimestamp) {
+        this(BlockHash.fromHex(hash), offset, referenceCount, size, encrypted, createdTimestamp, modifiedTimestamp);
+    }
+
+    public BlockSchema(BlockHash hash, long offset, int referenceCount, int size, boolean encrypted, long createdTimestamp, long modifiedTimestamp) {
         this.hash = hash;
         this.offset = offset;
         this.referenceCount = referenceCount;
@@ -32,9 +51,17 @@ public class BlockSchema {
 
     // Getters
     public String getHash() {
+        return hash.toHex();
+    }
+
+    public BlockHash getBlockHash() {
         return hash;
     }
 
+    public int getSegment() {
+        return segment;
+    }
+
     public long getOffset() {
         return offset;
     }
@@ -62,18 +89,12 @@ public class BlockSchema {
         return modifiedTimestamp;
     }
 
-    public void writeTo(RandomAccessFile raf) throws IOException {
-        // Write the fixed-length hash
-        byte[] hashBytes = new byte[HASH_LENGTH]; // Create a fixed-length byte array for the hash
-        byte[] currentHashBytes = hash.getBytes(); // Get the current hash bytes
-
-        // Fill the hashBytes with the current hash, ensuring it's fixed length
-        System.arraycopy(currentHashBytes, 0, hashBytes, 0, Math.min(currentHashBytes.length, HASH_LENGTH));
-
-        // Write the fixed-length hash to the file
-        raf.write(hashBytes); // Write the fixed-length hash
+    public void writeTo(DataOutput raf) throws IOException {
+        // Write the raw 32-byte hash
+        hash.writeTo(raf);
 
         // Write other fields
+        raf.writeInt(segment); // Write the segment id
         raf.writeLong(offset); // Write the offset
         raf.writeInt(referenceCount); // Write the reference count
         raf.writeInt(size); // Write the size of the block data
@@ -82,15 +103,11 @@ public class BlockSchema {
         raf.writeLong(modifiedTimestamp); // Write the modified timestamp
     }
 
-    public static BlockSchema readFrom(RandomAccessFile raf) throws IOException {
-        // Read the fixed-length hash
-        byte[] hashBytes = new byte[HASH_LENGTH]; // Create an array for the fixed-length hash
-        raf.readFully(hashBytes); // Read the fixed-length hash from the file
-        
-        // Convert the hash bytes back to a string
-        String hash = new String(hashBytes);
-        hash = hash.trim();
+    public static BlockSchema readFrom(DataInput raf) throws IOException {
+        // Read the raw 32-byte hash
+        BlockHash hash = BlockHash.readFrom(raf);
         // Read the other fields
+        int segment = raf.readInt(); // Read the segment id
         long offset = raf.readLong(); // Read the offset
         int referenceCount = raf.readInt(); // Read the reference count
         int size = raf.readInt(); // Read the size of the block data
@@ -98,12 +115,47 @@ public class BlockSchema {
         long createdTimestamp = raf.readLong(); // Read the created timestamp
         long modifiedTimestamp = raf.readLong(); // Read the modified timestamp
 
-        return new BlockSchema(hash, offset, referenceCount, size, isEncrypted, createdTimestamp, modifiedTimestamp);
+        BlockSchema schema = new BlockSchema(hash, offset, referenceCount, size, isEncrypted, createdTimestamp, modifiedTimestamp);
+        schema.setSegment(segment);
+        return schema;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        hash.writeTo(buffer);
+        buffer.putInt(segment);
+        buffer.putLong(offset);
+        buffer.putInt(referenceCount);
+        buffer.putInt(size);
+        buffer.put((byte) (encrypted ? 1 : 0));
+        buffer.putLong(createdTimestamp);
+        buffer.putLong(modifiedTimestamp);
+    }
+
+    // Decode a record at the buffer's position, same layout as readFrom(DataInput)
+    public static BlockSchema readFrom(ByteBuffer buffer) {
+        BlockHash hash = BlockHash.readFrom(buffer);
+        int segment = buffer.getInt();
+        long offset = buffer.getLong();
+        int referenceCount = buffer.getInt();
+        int size = buffer.getInt();
+        boolean isEncrypted = buffer.get() != 0;
+        long createdTimestamp = buffer.getLong();
+        long modifiedTimestamp = buffer.getLong();
+
+        BlockSchema schema = new BlockSchema(hash, offset, referenceCount, size, isEncrypted, createdTimestamp, modifiedTimestamp);
+        schema.setSegment(segment);
+        return schema;
+    }
+
+    public BlockSchema copy() {
+        BlockSchema copy = new BlockSchema(hash, offset, referenceCount, size, encrypted, createdTimestamp, modifiedTimestamp);
+        copy.setSegment(segment);
+        return copy;
     }
 
     // Method to get the size of the serialized schema in bytes
     public static int getSerializedSize() {
-        return HASH_LENGTH + Long.BYTES + REFERENCE_COUNT_LENGTH + SIZE_LENGTH +
+        return HASH_LENGTH + SEGMENT_LENGTH + Long.BYTES + REFERENCE_COUNT_LENGTH + SIZE_LENGTH +
                ENCRYPTED_LENGTH + TIMESTAMP_LENGTH * 2; // 2 timestamps
     }
 
@@ -119,4 +171,8 @@ public class BlockSchema {
 	public void setOffset(long offset) {
 		this.offset = offset;
 	}
+
+	public void setSegment(int segment) {
+		this.segment = segment;
+	}
 }
@@ -2,12 +2,25 @@ package com.infolink.dfs.bfs;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,9 +29,10 @@ import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
 import com.infolink.dfs.Config;
-import com.infolink.dfs.tobedelete.FileController;
+import com.infolink.dfs.shared.BlockHash;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 @Service
 public class BlockStorage {
@@ -33,22 +47,54 @@ public class BlockStorage {
     private Config config;
     
     public static final String BLOCK_STORAGE_PREFIX = "block_storage:"; // Redis key prefix
-    private long blockCount;
-    private long totalSize;
+    private final LongAdder blockCount = new LongAdder();
+    private final LongAdder totalSize = new LongAdder();
     private String containerUrl;
+    private final BlockIndex blockIndex = new BlockIndex();
+    private IndexFile.Mode indexMode = IndexFile.Mode.RAF;
+    private BlockDataStore.Mode storageMode = BlockDataStore.Mode.BUCKET;
+    private BucketDataStore bucketStore;
+    private SegmentDataStore segmentStore;
+    private HandleCache<IndexFile> indexFiles;
+    private GroupCommitter groupCommitter;
+    private BlockCache blockCache;
+
+    // Bytes of stored blocks readBlocks sorts into on-disk order at a time
+    private static final long READ_WINDOW_BYTES = 16L << 20;
+    private long readWindowBytes = READ_WINDOW_BYTES;
+
+    // Foreground operations share the read lock; compaction swaps and clearFiles take the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Foreground operations on one hash are serialized by its stripe, so concurrent
+    // saves of the same block cannot both append it or lose a reference count update
+    private static final int LOCK_STRIPES = 256;
+    private final ReentrantLock[] stripes = new ReentrantLock[LOCK_STRIPES];
     
     public BlockStorage(Encryptor encryptor, String rootDir) {
         this.rootDir 	= rootDir;
         this.encryptor 	= encryptor;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
         initializeDirectoryStructure();
     }
     
     @PostConstruct
     public void postConstruct() {
         this.containerUrl = config.getContainerUrl();
-        
-        blockCount = 0;
-        totalSize = 0;
+        this.indexMode = IndexFile.Mode.valueOf(config.getIndexMode().toUpperCase());
+        this.storageMode = BlockDataStore.Mode.valueOf(config.getStorageEngine().toUpperCase());
+        int maxOpenFiles = config.getMaxOpenFiles();
+        IndexFile.Mode mode = this.indexMode;
+        this.indexFiles = new HandleCache<>(maxOpenFiles, path -> IndexFile.open(mode, path.toString()));
+        this.bucketStore = new BucketDataStore(rootDir, maxOpenFiles);
+        this.segmentStore = new SegmentDataStore(rootDir, config.getSegmentSize(), maxOpenFiles);
+        this.blockCache = new BlockCache(config.getBlockCacheSize());
+        this.groupCommitter = new GroupCommitter(
+            GroupCommitter.Policy.valueOf(config.getSyncPolicy().toUpperCase()), config.getSyncInterval());
+        logger.info("Block storage engine: {}, index mode: {}, sync policy: {}", storageMode, indexMode, groupCommitter.getPolicy());
+        loadIndex();
         loadStats();
     }
 
@@ -63,226 +109,664 @@ public class BlockStorage {
         }
     }
 
+    @PreDestroy
+    public void close() {
+        groupCommitter.close();
+        indexFiles.close();
+        bucketStore.close();
+        try {
+            segmentStore.close();
+        } catch (IOException e) {
+            logger.error("Error closing block segment store: {}", e.getMessage());
+        }
+    }
+
+    private void loadIndex() {
+        try {
+            bucketStore.recoverInterruptedCompactions();
+            segmentStore.recoverInterruptedIndexRewrite();
+            blockIndex.load(Paths.get(rootDir));
+        } catch (IOException e) {
+            // Serving with a partial index would hand out wrong reference counts
+            throw new IllegalStateException("Error loading block index from " + rootDir + ": " + e.getMessage(), e);
+        }
+    }
+
     public void saveBlock(String hash, byte[] blockData, boolean encrypt) throws IOException, NoSuchAlgorithmException {
-        String blockFilePath = getBlockFilePath(hash);
-        String indexFilePath = getIndexFilePath(hash);
-        
-        // Create a new Block object
-        Block block = new Block(blockData, encrypt, hash);
-        if (encrypt) block.encrypt(encryptor);
-        
-        File blockFile = new File(blockFilePath);
-        File indexFile = new File(indexFilePath);
-        
-        File parentDir = blockFile.getParentFile(); // Get the parent directory        
-        if (!parentDir.exists()) {
-            parentDir.mkdirs(); // Create the parent directories if they don't exist
-        }
-
-        // Check if index file exists, create if not
-        if (!indexFile.exists()) {
-            indexFile.createNewFile();
-        }
-
-        try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "rw");
-             RandomAccessFile blockRaf = new RandomAccessFile(blockFile, "rw")) {
-
-            boolean found = false;
-            long indexPosition = 0;
-            long schemaSize = BlockSchema.getSerializedSize();
-
-            // Search for the hash in the index file
-            while (indexRaf.getFilePointer() < indexRaf.length()) {
-                BlockSchema existingSchema = BlockSchema.readFrom(indexRaf);
-                if (existingSchema.getHash().equals(hash)) {
-                    found = true;
-                    // Update reference count
-                    existingSchema.setReferenceCount(existingSchema.getReferenceCount() + 1);
-                    // Move the pointer back to the position of the found schema to overwrite it
-                    indexRaf.seek(indexRaf.getFilePointer() - schemaSize);
-                    existingSchema.writeTo(indexRaf); // Write updated schema
-                    break;
+        saveBlock(BlockHash.fromHex(hash), blockData, encrypt);
+    }
+
+    public void saveBlock(BlockHash hash, byte[] blockData, boolean encrypt) throws IOException, NoSuchAlgorithmException {
+        saveBlock(hash, blockData, blockData.length, encrypt);
+    }
+
+    // Save the first length bytes of blockData, so callers can pass a reused buffer as is
+    public void saveBlock(BlockHash hash, byte[] blockData, int length, boolean encrypt) throws IOException, NoSuchAlgorithmException {
+        // Wait for the group commit outside the locks, so the batch can keep filling
+        groupCommitter.awaitDurable(saveBlockDeferred(hash, blockData, length, encrypt));
+    }
+
+    // Save without waiting for durability and return the ticket to pass to awaitDurable.
+    // Batch writers save all their blocks first and wait once for the highest ticket.
+    public long saveBlockDeferred(BlockHash hash, byte[] blockData, int length, boolean encrypt) throws IOException, NoSuchAlgorithmException {
+        ReentrantLock stripe = stripeFor(hash);
+        long ticket;
+        lock.readLock().lock();
+        stripe.lock();
+        try {
+            IndexEntry entry = blockIndex.get(hash);
+            if (entry != null) {
+                // Known block: only the reference count changes
+                BlockSchema existingSchema = entry.getSchema();
+                existingSchema.setReferenceCount(existingSchema.getReferenceCount() + 1);
+                ticket = writeReferenceCount(entry);
+                if (existingSchema.getReferenceCount() == 1) {
+                    // A block waiting for compaction is live again
+                    updateStats(1, existingSchema.getSize());
                 }
-                indexPosition += schemaSize; // Move to next schema
+            } else {
+                ticket = writeNewBlock(hash, blockData, length, encrypt);
             }
+        } finally {
+            stripe.unlock();
+            lock.readLock().unlock();
+        }
+        return ticket;
+    }
 
-            if (!found) {
-                // Update the schema's offset to the end of the block file
-                blockRaf.seek(blockRaf.length()); // Move to the end of the block file
-                long offset = blockRaf.getFilePointer();
-                block.getSchema().setOffset(offset); // Update offset in the schema
-                
-                // Write the schema to the index file
-                block.getSchema().writeTo(indexRaf);
-                
-                // Write the block data to the block file
-                block.writeTo(blockRaf);
-                
-                // Update the block count and total size
-                blockCount++;
-                totalSize += blockData.length; // Add the size of the newly saved block
+    // Under the batch sync policy, block until every write up to the ticket is on disk
+    public void awaitDurable(long ticket) throws IOException {
+        groupCommitter.awaitDurable(ticket);
+    }
 
-                // Update Redis directly
-                redisTemplate.opsForValue().set(BLOCK_STORAGE_PREFIX + containerUrl + ":blockCount", Long.valueOf(blockCount));
-                redisTemplate.opsForValue().set(BLOCK_STORAGE_PREFIX + containerUrl + ":totalSize", Long.valueOf(totalSize));
-                logger.debug("Block statistics updated in Redis: count={}, size={}", blockCount, totalSize);
-            }
+    // Called holding the stripe of the hash; returns the group commit ticket
+    private long writeNewBlock(BlockHash hash, byte[] blockData, int length, boolean encrypt) throws IOException, NoSuchAlgorithmException {
+        // Create a new Block object
+        Block block = new Block(blockData, length, encrypt, hash);
+        if (encrypt) block.encrypt(encryptor);
+
+        // Write the data first, so an index record never points at missing bytes
+        BlockDataStore dataStore = getWriteStore();
+        BlockSchema schema = block.getSchema();
+        dataStore.write(hash, schema, block.getData());
+        groupCommitter.markDirty(dataStore.getDataFilePath(hash, schema), path -> forceDataFile(dataStore, path));
+
+        // Append the schema to the index file
+        String indexFilePath = dataStore.getIndexFilePath(hash);
+        try (HandleCache.Handle<IndexFile> indexFile = indexFiles.acquire(Paths.get(indexFilePath))) {
+            long slot = indexFile.get().append(schema);
+            blockIndex.put(hash, new IndexEntry(indexFilePath, slot, schema));
         }
+
+        // Update the block count and total size
+        updateStats(1, length);
+        return groupCommitter.markDirty(indexFilePath, this::forceIndexFile);
     }
 
 
     public byte[] readBlock(String hash) throws IOException, NoSuchElementException, NoSuchAlgorithmException {
-        String indexFilePath = getIndexFilePath(hash);
-        String blockFilePath = getBlockFilePath(hash);
+        return readBlock(BlockHash.fromHex(hash));
+    }
 
-        File indexFile = new File(indexFilePath);
-        File blockFile = new File(blockFilePath);
+    public byte[] readBlock(BlockHash hash) throws IOException, NoSuchElementException, NoSuchAlgorithmException {
+        return readBlock(hash, true);
+    }
+
+    // Batch and streaming reads pass fillCache=false: they still take cache hits, but a
+    // pass over many cold blocks must not push the hot ones out
+    public byte[] readBlock(BlockHash hash, boolean fillCache) throws IOException, NoSuchElementException, NoSuchAlgorithmException {
+        // Misses are answered by the resident index without taking any lock
+        if (blockIndex.get(hash) == null) {
+            throw new NoSuchElementException("Block not found for hash: " + hash);
+        }
 
-        // Ensure the index file exists
-        if (!indexFile.exists()) {
-            throw new NoSuchElementException("Index file not found for hash: " + hash);
+        // Hot blocks come from the cache, already decrypted
+        byte[] cached = blockCache.get(hash);
+        if (cached != null) {
+            return cached;
         }
 
-        try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "r");
-             RandomAccessFile blockRaf = new RandomAccessFile(blockFile, "r")) {
+        BlockSchema schema;
+        byte[] data;
+        lock.readLock().lock();
+        try {
+            IndexEntry entry = blockIndex.get(hash);
+            if (entry == null) {
+                throw new NoSuchElementException("Block not found for hash: " + hash);
+            }
+
+            schema = entry.getSchema();
+            data = getDataStore(schema).read(hash, schema);
+        } finally {
+            lock.readLock().unlock();
+        }
+        
+        // Decrypt into a new array; the indexed schema keeps the stored size
+        if (schema.isEncrypted()) {
+        	data = encryptor.decrypt(data);
+        }
+        if (fillCache) {
+            blockCache.put(hash, data);
+        }
+        
+        logger.debug("BlockStorage::readBlock----------------- block read(byte count={})", schema.getSize());
+        logger.debug(" --------------------------------------- block actual size={}", data.length);
+        return data; // Return the read block data
+    }
 
-            boolean found = false;
+    // Region of an unencrypted block on disk, for sending it without reading it into
+    // memory; the caller must close it. Null if the block is stored encrypted, which
+    // leaves it to readBlock.
+    public BlockRegion openBlockRegion(BlockHash hash) throws IOException, NoSuchElementException {
+        lock.readLock().lock();
+        try {
+            IndexEntry entry = blockIndex.get(hash);
+            if (entry == null) {
+                throw new NoSuchElementException("Block not found for hash: " + hash);
+            }
+            BlockSchema schema = entry.getSchema();
+            if (schema.isEncrypted()) {
+                return null;
+            }
+            return getDataStore(schema).openRegion(hash, schema);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-            // Search for the hash in the index file
-            while (indexRaf.getFilePointer() < indexRaf.length()) {
-                // Read the schema from the index
-                BlockSchema schema = BlockSchema.readFrom(indexRaf);
-                if (schema.getHash().equals(hash)) {
-                    found = true;
+    @FunctionalInterface
+    public interface BlockVisitor {
+        // index is the block's position in the request; data is null for a missing block
+        void accept(int index, byte[] data) throws IOException;
+    }
 
-                    // Read the block data from the block file using the offset and size from the schema
-                    blockRaf.seek(schema.getOffset()); // Seek to the offset
-                    Block block = new Block(schema, new byte[schema.getSize()]);
-                    block.readFromFile(blockRaf, encryptor);
-                    
-                    if (schema.isEncrypted()) {
-                    	block.decrypt(encryptor);
-                    }
-                    
-                    logger.debug("BlockStorage::readBlock----------------- block read(byte count={})", block.getSize());
-                    logger.debug(" --------------------------------------- block actual size={}", block.getData().length);
-                    return block.getData(); // Return the read block data
+    // Read many blocks in on-disk order (data file, then offset) instead of request
+    // order, so a batch reads each file front to back. The request is taken in
+    // consecutive windows of about readWindowBytes and only sorted within a window,
+    // which bounds what a caller restoring request order has to hold. Missing blocks
+    // come first in their window. Blocks read here are not added to the cache.
+    public void readBlocks(List<BlockHash> hashes, BlockVisitor visitor) throws IOException, NoSuchAlgorithmException {
+        String[] files = new String[hashes.size()];
+        long[] offsets = new long[hashes.size()];
+        long[] sizes = new long[hashes.size()];
+        for (int i = 0; i < hashes.size(); i++) {
+            IndexEntry entry = blockIndex.get(hashes.get(i));
+            if (entry != null) {
+                BlockSchema schema = entry.getSchema();
+                files[i] = getDataStore(schema).getDataFilePath(hashes.get(i), schema);
+                offsets[i] = schema.getOffset();
+                sizes[i] = schema.getSize();
+            }
+        }
+        Comparator<Integer> diskOrder = Comparator.<Integer, String>comparing(i -> files[i], Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparingLong(i -> offsets[i]);
+
+        int start = 0;
+        while (start < hashes.size()) {
+            // Every window takes at least one block, however large
+            List<Integer> window = new ArrayList<>();
+            long windowBytes = 0;
+            int end = start;
+            while (end < hashes.size() && (window.isEmpty() || windowBytes + sizes[end] <= readWindowBytes)) {
+                windowBytes += sizes[end];
+                window.add(end++);
+            }
+            window.sort(diskOrder);
+
+            for (int index : window) {
+                byte[] data;
+                try {
+                    data = readBlock(hashes.get(index), false);
+                } catch (NoSuchElementException e) {
+                    data = null;
                 }
+                visitor.accept(index, data);
+            }
+            start = end;
+        }
+    }
+
+    public void deleteBlock(String hash) throws IOException, NoSuchAlgorithmException {
+        deleteBlock(BlockHash.fromHex(hash));
+    }
+
+    public void deleteBlock(BlockHash hash) throws IOException, NoSuchAlgorithmException {
+        ReentrantLock stripe = stripeFor(hash);
+        long ticket = 0;
+        lock.readLock().lock();
+        stripe.lock();
+        try {
+            IndexEntry entry = blockIndex.get(hash);
+            if (entry == null) {
+                logger.debug("Block not found for hash: {}", hash);
+                return; // Hash does not exist, so return
             }
 
-            if (!found) {
+            BlockSchema schema = entry.getSchema();
+            if (schema.getReferenceCount()==1) {
+                updateStats(-1, -schema.getSize()); // Subtract the size of the deleted block
+            }
+            
+            if (schema.getReferenceCount() > 0) {
+                schema.setReferenceCount(schema.getReferenceCount()-1);
+                ticket = writeReferenceCount(entry);
+            }
+            
+            if (schema.getReferenceCount() == 0) {
+                blockCache.invalidate(hash);
+                logger.debug("Block with hash {} will be purged by the next compaction.", hash);
+            }
+        } finally {
+            stripe.unlock();
+            lock.readLock().unlock();
+        }
+        groupCommitter.awaitDurable(ticket);
+    }
+
+    public int getReferenceCount(String hash) throws IOException {
+        return getReferenceCount(BlockHash.fromHex(hash));
+    }
+
+    public int getReferenceCount(BlockHash hash) throws IOException {
+        if (blockIndex.get(hash) == null) {
+            throw new NoSuchElementException("Block not found for hash: " + hash);
+        }
+
+        ReentrantLock stripe = stripeFor(hash);
+        lock.readLock().lock();
+        stripe.lock();
+        try {
+            IndexEntry entry = blockIndex.get(hash);
+
+            // If the hash was not found, throw an exception
+            if (entry == null) {
                 throw new NoSuchElementException("Block not found for hash: " + hash);
             }
+            return entry.getSchema().getReferenceCount();
+        } finally {
+            stripe.unlock();
+            lock.readLock().unlock();
         }
-		return null;
     }
 
-    public void deleteBlock(String hash) throws IOException, NoSuchAlgorithmException {
-        String indexFilePath = getIndexFilePath(hash);
-        File indexFile = new File(indexFilePath);
+    public boolean containsBlock(String hash) {
+        return containsBlock(BlockHash.fromHex(hash));
+    }
 
-        if (!indexFile.exists()) {
-            System.out.println("Index file not found for hash: " + hash);
-            return; // Hash does not exist, so return
+    // True if the block is stored and still referenced. Unknown hashes are answered
+    // from the in-memory index alone; no file is opened for a miss.
+    public boolean containsBlock(BlockHash hash) {
+        if (blockIndex.get(hash) == null) {
+            return false;
         }
 
-        try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "rw")) {
-            boolean found = false;
+        ReentrantLock stripe = stripeFor(hash);
+        stripe.lock();
+        try {
+            IndexEntry entry = blockIndex.get(hash);
+            return entry != null && entry.getSchema().getReferenceCount() > 0;
+        } finally {
+            stripe.unlock();
+        }
+    }
 
-            // Search for the hash in the index file
-            while (indexRaf.getFilePointer() < indexRaf.length()) {
-                // Read the current position in the file
-                long currentPosition = indexRaf.getFilePointer();
-                
-                // Read the schema from the index
-                BlockSchema schema = BlockSchema.readFrom(indexRaf);
+    // Rewrite storage files without the blocks whose reference count dropped to zero.
+    // Bucket files are rewritten whole; a sealed segment is emptied into the active
+    // segment once at least minDeadRatio of its bytes are dead, then deleted, and the
+    // shared segment index is rewritten without the records of the purged blocks.
+    public CompactionResult compact(IoThrottle throttle, double minDeadRatio) throws IOException {
+        CompactionResult result = new CompactionResult();
+
+        Map<String, List<IndexEntry>> buckets = new HashMap<>();
+        Map<Integer, List<IndexEntry>> segments = new HashMap<>();
+        for (IndexEntry entry : blockIndex.entries()) {
+            int segment = entry.getSchema().getSegment();
+            if (segment == BlockSchema.NO_SEGMENT) {
+                buckets.computeIfAbsent(entry.getIndexFilePath(), path -> new ArrayList<>()).add(entry);
+            } else {
+                segments.computeIfAbsent(segment, id -> new ArrayList<>()).add(entry);
+            }
+        }
 
-                if (schema.getHash().equals(hash)) {
-                    found = true;
-                    if (schema.getReferenceCount()==1) {
-                    	totalSize -= schema.getSize(); // Subtract the size of the deleted block
-                        blockCount--; // Decrement the block count
+        for (Map.Entry<String, List<IndexEntry>> bucket : buckets.entrySet()) {
+            List<IndexEntry> entries = bucket.getValue();
+            if (entries.stream().anyMatch(entry -> entry.getSchema().getReferenceCount() == 0)) {
+                // Pay for the copy before taking the lock, so foreground writers never wait on the throttle
+                throttle.acquire(liveBytes(entries));
+                compactBucket(bucket.getKey(), result);
+            }
+        }
 
-                        // Update Redis directly
-                        redisTemplate.opsForValue().set(BLOCK_STORAGE_PREFIX + containerUrl + ":blockCount", Long.valueOf(blockCount));
-                        redisTemplate.opsForValue().set(BLOCK_STORAGE_PREFIX + containerUrl + ":totalSize", Long.valueOf(totalSize));
-                        logger.debug("Block statistics updated in Redis after deletion: count={}, size={}", blockCount, totalSize);
+        int activeSegment = segments.isEmpty() ? -1 : segmentStore.openActiveSegment();
+        for (Map.Entry<Integer, List<IndexEntry>> segment : segments.entrySet()) {
+            int segmentId = segment.getKey();
+            Path segmentPath = segmentStore.getSegmentPath(segmentId);
+            if (segmentId == activeSegment || !Files.exists(segmentPath)) {
+                continue;
+            }
 
-                    }
-                    
-                    if (schema.getReferenceCount() > 0) {
-                        schema.setReferenceCount(schema.getReferenceCount()-1);
-                        indexRaf.seek(currentPosition);
-                        
-                        schema.writeTo(indexRaf);
-                        
-                    }
-                    
+            long deadBytes = 0;
+            for (IndexEntry entry : segment.getValue()) {
+                if (entry.getSchema().getReferenceCount() == 0) {
+                    deadBytes += entry.getSchema().getSize();
+                }
+            }
+            if (deadBytes > 0 && deadBytes >= Files.size(segmentPath) * minDeadRatio) {
+                compactSegment(segmentId, segment.getValue(), throttle, result);
+            }
+        }
+
+        if (!segments.isEmpty()) {
+            rewriteSegmentIndex(result);
+        }
+        return result;
+    }
+
+    private void compactBucket(String indexFilePath, CompactionResult result) throws IOException {
+        lock.writeLock().lock();
+        try {
+            // Re-collect under the lock; writers may have changed the bucket meanwhile
+            List<IndexEntry> entries = new ArrayList<>();
+            for (IndexEntry entry : blockIndex.entries()) {
+                if (entry.getIndexFilePath().equals(indexFilePath)) {
+                    entries.add(entry);
+                }
+            }
+            if (entries.isEmpty()) {
+                return;
+            }
+            entries.sort(Comparator.comparingLong(IndexEntry::getSlot));
+
+            Path indexPath = Paths.get(indexFilePath);
+            Path dataPath = Paths.get(bucketStore.getBlockFilePath(entries.get(0).getSchema().getBlockHash()));
+            Path compactIndexPath = BucketDataStore.compactPath(indexPath);
+            Path compactDataPath = BucketDataStore.compactPath(dataPath);
+            long sizeBefore = Files.size(indexPath) + Files.size(dataPath);
+
+            // Copy the live blocks into fresh files
+            List<IndexEntry> liveEntries = new ArrayList<>();
+            int purged = 0;
+            Files.deleteIfExists(compactIndexPath);
+            try (FileChannel dataOut = FileChannel.open(compactDataPath,
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 IndexFile indexOut = IndexFile.open(indexMode, compactIndexPath.toString())) {
+                long offset = 0;
+                for (IndexEntry entry : entries) {
+                    BlockSchema schema = entry.getSchema();
                     if (schema.getReferenceCount() == 0) {
-                        logger.debug("Block with hash {} can be purged.", hash);
-                        
+                        blockCache.invalidate(schema.getBlockHash());
+                        purged++;
+                        continue;
                     }
-                    break; // Exit the loop as we found the hash
+
+                    ByteBuffer data = ByteBuffer.wrap(bucketStore.read(schema.getBlockHash(), schema));
+                    BlockSchema moved = schema.copy();
+                    moved.setOffset(offset);
+                    while (data.hasRemaining()) {
+                        offset += dataOut.write(data, offset);
+                    }
+                    long slot = indexOut.append(moved);
+                    liveEntries.add(new IndexEntry(indexFilePath, slot, moved));
                 }
+                dataOut.force(true);
+                indexOut.force();
             }
 
-            if (!found) {
-                logger.debug("Block not found for hash: {}" + hash);
+            // Cached handles would keep pointing at the replaced files
+            indexFiles.invalidate(indexPath);
+            bucketStore.evict(dataPath);
+
+            // Data first: an index.compact left behind means the data swap already happened
+            Files.move(compactDataPath, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(compactIndexPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            for (IndexEntry entry : entries) {
+                blockIndex.remove(entry.getSchema().getBlockHash());
+            }
+            for (IndexEntry entry : liveEntries) {
+                blockIndex.put(entry.getSchema().getBlockHash(), entry);
             }
+
+            long sizeAfter = Files.size(indexPath) + Files.size(dataPath);
+            if (liveEntries.isEmpty()) {
+                Files.delete(indexPath);
+                Files.delete(dataPath);
+                sizeAfter = 0;
+            }
+            result.addFile(purged, sizeBefore - sizeAfter);
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
-    public int getReferenceCount(String hash) throws IOException {
-        String indexFilePath = getIndexFilePath(hash);
-        File indexFile = new File(indexFilePath);
+    private void compactSegment(int segmentId, List<IndexEntry> entries, IoThrottle throttle, CompactionResult result) throws IOException {
+        Path segmentPath = segmentStore.getSegmentPath(segmentId);
+        segmentStore.beginEvacuation(segmentId);
+        try {
+            evacuateSegment(segmentId, segmentPath, entries, throttle, result);
+        } finally {
+            segmentStore.endEvacuation();
+        }
+    }
+
+    private void evacuateSegment(int segmentId, Path segmentPath, List<IndexEntry> entries, IoThrottle throttle,
+            CompactionResult result) throws IOException {
+        long sizeBefore = Files.size(segmentPath);
+        long movedBytes = 0;
+        Set<String> movedTo = new HashSet<>();
+
+        // A sealed segment never changes, so live blocks are read outside the lock
+        // and only the relocation itself is done under it.
+        for (IndexEntry entry : entries) {
+            BlockSchema schema = entry.getSchema();
+            if (schema.getReferenceCount() == 0) {
+                continue;
+            }
+            byte[] data = segmentStore.read(schema.getBlockHash(), schema);
+            throttle.acquire(data.length);
+
+            lock.writeLock().lock();
+            try {
+                if (blockIndex.get(schema.getBlockHash()) == entry && schema.getReferenceCount() > 0) {
+                    movedTo.add(relocateSegmentBlock(entry, data));
+                    movedBytes += data.length;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // Purge what is left and drop the segment
+        int purged = 0;
+        lock.writeLock().lock();
+        try {
+            for (IndexEntry entry : new ArrayList<>(blockIndex.entries())) {
+                BlockSchema schema = entry.getSchema();
+                if (schema.getSegment() != segmentId) {
+                    continue;
+                }
+                if (schema.getReferenceCount() > 0) {
+                    // Revived by a save while the segment was being emptied
+                    byte[] data = segmentStore.read(schema.getBlockHash(), schema);
+                    movedTo.add(relocateSegmentBlock(entry, data));
+                    movedBytes += data.length;
+                } else {
+                    try (HandleCache.Handle<IndexFile> indexFile = indexFiles.acquire(Paths.get(entry.getIndexFilePath()))) {
+                        indexFile.get().writeReferenceCount(entry.getSlot(), BlockSchema.PURGED);
+                    }
+                    blockIndex.remove(schema.getBlockHash());
+                    blockCache.invalidate(schema.getBlockHash());
+                    purged++;
+                }
+            }
 
-        // Ensure the index file exists
-        if (!indexFile.exists()) {
-            throw new NoSuchElementException("Index file not found for hash: " + hash);
+            // The moved copies and their index records must be on disk before the original goes
+            for (String dataFilePath : movedTo) {
+                segmentStore.force(dataFilePath);
+            }
+            forceIndexFile(segmentStore.getIndexFilePath(null));
+            segmentStore.evict(segmentId);
+            Files.delete(segmentPath);
+        } finally {
+            lock.writeLock().unlock();
         }
+        result.addFile(purged, sizeBefore - movedBytes);
+    }
 
-        try (RandomAccessFile indexRaf = new RandomAccessFile(indexFile, "r")) {
-            // Search for the hash in the index file
-            while (indexRaf.getFilePointer() < indexRaf.length()) {
-                // Read the schema from the index
-                BlockSchema schema = BlockSchema.readFrom(indexRaf);
+    // compactSegment only marks the records of purged blocks; drop them from the file
+    // once there are any, so the segment index does not grow with every block ever stored
+    private void rewriteSegmentIndex(CompactionResult result) throws IOException {
+        String indexFilePath = segmentStore.getIndexFilePath(null);
+        Path indexPath = Paths.get(indexFilePath);
+        if (!Files.exists(indexPath)) {
+            return;
+        }
 
-                // Check if this schema matches the hash
-                if (schema.getHash().equals(hash)) {
-                    return schema.getReferenceCount();
+        lock.writeLock().lock();
+        try {
+            List<IndexEntry> entries = new ArrayList<>();
+            for (IndexEntry entry : blockIndex.entries()) {
+                if (entry.getIndexFilePath().equals(indexFilePath)) {
+                    entries.add(entry);
                 }
             }
+            try (HandleCache.Handle<IndexFile> indexFile = indexFiles.acquire(indexPath)) {
+                if (indexFile.get().getRecordCount() == entries.size()) {
+                    return; // Nothing purged
+                }
+            }
+            entries.sort(Comparator.comparingLong(IndexEntry::getSlot));
+
+            // The in-memory records are current, so they are written out as they are
+            Path rewritePath = segmentStore.getIndexRewritePath();
+            long sizeBefore = Files.size(indexPath);
+            List<IndexEntry> rewritten = new ArrayList<>(entries.size());
+            Files.deleteIfExists(rewritePath);
+            try (IndexFile indexOut = IndexFile.open(indexMode, rewritePath.toString())) {
+                for (IndexEntry entry : entries) {
+                    long slot = indexOut.append(entry.getSchema());
+                    rewritten.add(new IndexEntry(indexFilePath, slot, entry.getSchema()));
+                }
+                indexOut.force();
+            }
+
+            indexFiles.invalidate(indexPath);
+            Files.move(rewritePath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (IndexEntry entry : rewritten) {
+                blockIndex.put(entry.getSchema().getBlockHash(), entry);
+            }
+            result.addFile(0, sizeBefore - Files.size(indexPath));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Append a live block to the active segment and repoint its index record; returns the new data file
+    private String relocateSegmentBlock(IndexEntry entry, byte[] data) throws IOException {
+        BlockSchema moved = entry.getSchema().copy();
+        segmentStore.write(moved.getBlockHash(), moved, data);
+        try (HandleCache.Handle<IndexFile> indexFile = indexFiles.acquire(Paths.get(entry.getIndexFilePath()))) {
+            indexFile.get().write(entry.getSlot(), moved);
+        }
+        blockIndex.put(moved.getBlockHash(), new IndexEntry(entry.getIndexFilePath(), entry.getSlot(), moved));
+        return segmentStore.getDataFilePath(moved.getBlockHash(), moved);
+    }
+
+    private static long liveBytes(List<IndexEntry> entries) {
+        long bytes = 0;
+        for (IndexEntry entry : entries) {
+            if (entry.getSchema().getReferenceCount() > 0) {
+                bytes += entry.getSchema().getSize();
+            }
         }
+        return bytes;
+    }
+
+    private void updateStats(long countDelta, long sizeDelta) {
+        blockCount.add(countDelta);
+        totalSize.add(sizeDelta);
+
+        // Apply the deltas in Redis, so concurrent updates cannot overwrite each other
+        redisTemplate.opsForValue().increment(BLOCK_STORAGE_PREFIX + containerUrl + ":blockCount", countDelta);
+        redisTemplate.opsForValue().increment(BLOCK_STORAGE_PREFIX + containerUrl + ":totalSize", sizeDelta);
+        logger.debug("Block statistics updated in Redis: count delta={}, size delta={}", countDelta, sizeDelta);
+    }
 
-        // If the hash was not found, throw an exception
-        throw new NoSuchElementException("Block not found for hash: " + hash);
+    private ReentrantLock stripeFor(BlockHash hash) {
+        return stripes[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
     }
 
-    private String getIndexFilePath(String hash) {
-        // Use the same directory structure as block files for the index files
-        return Paths.get(rootDir, hash.substring(0, 2), hash.substring(2, 4), hash.substring(4, 6), hash.substring(6,8) + ".idx").toString();
+    // Write the reference count of an indexed block in place; returns the group commit ticket
+    private long writeReferenceCount(IndexEntry entry) throws IOException {
+        try (HandleCache.Handle<IndexFile> indexFile = indexFiles.acquire(Paths.get(entry.getIndexFilePath()))) {
+            indexFile.get().writeReferenceCount(entry.getSlot(), entry.getSchema().getReferenceCount());
+        }
+        return groupCommitter.markDirty(entry.getIndexFilePath(), this::forceIndexFile);
+    }
+
+    // Group commit forces run after the writer has let go of its locks. They take the
+    // read lock so they cannot open a file while compaction swaps it; a handle opened
+    // between the eviction and the move would stay cached pointing at the old file.
+    private void forceIndexFile(String indexFilePath) throws IOException {
+        lock.readLock().lock();
+        try {
+            // Compaction may have removed an emptied bucket; its replacement was forced already
+            if (!Files.exists(Paths.get(indexFilePath))) {
+                return;
+            }
+            try (HandleCache.Handle<IndexFile> indexFile = indexFiles.acquire(Paths.get(indexFilePath))) {
+                indexFile.get().force();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void forceDataFile(BlockDataStore dataStore, String dataFilePath) throws IOException {
+        lock.readLock().lock();
+        try {
+            dataStore.force(dataFilePath);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public String getBlockFilePath(String hash) {
-        return Paths.get(rootDir, hash.substring(0, 2), hash.substring(2, 4), hash.substring(4, 6), hash.substring(6,8) + ".bfs").toString();
+        return bucketStore.getBlockFilePath(BlockHash.fromHex(hash));
+    }
+
+    // Store that receives new blocks, chosen by dfs.storage.engine
+    private BlockDataStore getWriteStore() {
+        return storageMode == BlockDataStore.Mode.SEGMENT ? segmentStore : bucketStore;
+    }
+
+    // Store that holds an indexed block; both layouts stay readable after a mode switch
+    private BlockDataStore getDataStore(BlockSchema schema) {
+        return schema.getSegment() == BlockSchema.NO_SEGMENT ? bucketStore : segmentStore;
     }
     
     public void clearFiles() {
+        lock.writeLock().lock();
         try {
+            indexFiles.invalidateAll();
+            bucketStore.close();
+            segmentStore.close();
             Path rootPath = Paths.get(rootDir);
             if (Files.exists(rootPath)) {
                 Files.walk(rootPath)
                     .sorted((path1, path2) -> path2.compareTo(path1)) // Start from deepest file first
                     .map(Path::toFile)
                     .forEach(File::delete);
+                blockIndex.clear();
+                blockCache.clear();
                 logger.debug("All test files cleared successfully.");
                 // Reset block count and total size
-                blockCount = 0;
-                totalSize = 0;
+                blockCount.reset();
+                totalSize.reset();
 
                 // Update statistics in Redis
-                redisTemplate.opsForValue().set(BLOCK_STORAGE_PREFIX + containerUrl + ":blockCount", Long.valueOf(blockCount));
-                redisTemplate.opsForValue().set(BLOCK_STORAGE_PREFIX + containerUrl + ":totalSize", Long.valueOf(totalSize));
+                redisTemplate.opsForValue().set(BLOCK_STORAGE_PREFIX + containerUrl + ":blockCount", 0L);
+                redisTemplate.opsForValue().set(BLOCK_STORAGE_PREFIX + containerUrl + ":totalSize", 0L);
                 logger.debug("Block count and total size reset to 0 in Redis.");
                 
             } else {
@@ -290,6 +774,8 @@ public class BlockStorage {
             }
         } catch (IOException e) {
             logger.error("Failed to clear test files: {}", e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
         }
     }
     
@@ -298,18 +784,24 @@ public class BlockStorage {
         Long count = redisTemplate.opsForValue().get(BLOCK_STORAGE_PREFIX + containerUrl + ":blockCount");
         Long size  = redisTemplate.opsForValue().get(BLOCK_STORAGE_PREFIX + containerUrl + ":totalSize");
 
-        blockCount = (count != null) ? count : 0;
-        totalSize = (size != null) ? size : 0;
+        blockCount.reset();
+        totalSize.reset();
+        blockCount.add((count != null) ? count : 0);
+        totalSize.add((size != null) ? size : 0);
 
         logger.debug("Block statistics loaded from Redis: count={}, size={}", blockCount, totalSize);
     }
     
+    public BlockCache.Stats getCacheStats() {
+        return blockCache.getStats();
+    }
+
     public long getBlockCount() {
-    	return this.blockCount;
+    	return this.blockCount.sum();
     }
     
     public long getBlockTotalSize() {
-    	return this.totalSize;
+    	return this.totalSize.sum();
     }
 }
 
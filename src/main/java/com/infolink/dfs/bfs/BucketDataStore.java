@@ -0,0 +1,146 @@
+package com.infolink.dfs.bfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.infolink.dfs.shared.BlockHash;
+
+/**
+ * The original layout: blocks and index records spread over a 4-level
+ * directory tree keyed by the first four hash bytes.
+ */
+public class BucketDataStore implements BlockDataStore {
+    private static final Logger logger = LoggerFactory.getLogger(BucketDataStore.class);
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    private final String rootDir;
+    private final HandleCache<FileChannel> dataFiles;
+
+    public BucketDataStore(String rootDir, int maxOpenFiles) {
+        this.rootDir = rootDir;
+        this.dataFiles = new HandleCache<>(maxOpenFiles, ChannelIO::openDataFile);
+    }
+
+    @Override
+    public String getIndexFilePath(BlockHash hash) {
+        // Use the same directory structure as block files for the index files
+        return getBucketPath(hash) + ".idx";
+    }
+
+    @Override
+    public String getDataFilePath(BlockHash hash, BlockSchema schema) {
+        return getBlockFilePath(hash);
+    }
+
+    public String getBlockFilePath(BlockHash hash) {
+        return getBucketPath(hash) + ".bfs";
+    }
+
+    @Override
+    public void write(BlockHash hash, BlockSchema schema, byte[] data) throws IOException {
+        try (HandleCache.Handle<FileChannel> handle = dataFiles.acquire(Paths.get(getBlockFilePath(hash)))) {
+            FileChannel channel = handle.get();
+            // Appends to one bucket file must not interleave
+            synchronized (channel) {
+                long offset = channel.size();
+                ChannelIO.writeFully(channel, ByteBuffer.wrap(data, 0, schema.getSize()), offset);
+                schema.setSegment(BlockSchema.NO_SEGMENT);
+                schema.setOffset(offset);
+            }
+        }
+    }
+
+    @Override
+    public byte[] read(BlockHash hash, BlockSchema schema) throws IOException {
+        try (HandleCache.Handle<FileChannel> handle = dataFiles.acquire(Paths.get(getBlockFilePath(hash)))) {
+            return ChannelIO.readFully(handle.get(), schema.getOffset(), schema.getSize());
+        }
+    }
+
+    @Override
+    public BlockRegion openRegion(BlockHash hash, BlockSchema schema) throws IOException {
+        return new BlockRegion(dataFiles.acquire(Paths.get(getBlockFilePath(hash))), schema.getOffset(), schema.getSize());
+    }
+
+    @Override
+    public void force(String dataFilePath) throws IOException {
+        Path path = Paths.get(dataFilePath);
+        if (!Files.exists(path)) {
+            return; // Removed by compaction after it was written
+        }
+        try (HandleCache.Handle<FileChannel> handle = dataFiles.acquire(path)) {
+            handle.get().force(false);
+        }
+    }
+
+    // Drop the cached handle of a bucket file that is about to be replaced or deleted
+    public void evict(Path dataPath) {
+        dataFiles.invalidate(dataPath);
+    }
+
+    @Override
+    public void close() {
+        dataFiles.close();
+    }
+
+    // Temporary file a bucket file is rewritten into during compaction
+    public static Path compactPath(Path path) {
+        return Paths.get(path.toString() + COMPACT_SUFFIX);
+    }
+
+    // Finish or roll back bucket rewrites cut short by a crash. Compaction moves the
+    // data file into place before the index file, so a leftover .idx.compact without
+    // its .bfs.compact means the data swap already happened and the index must follow.
+    public void recoverInterruptedCompactions() throws IOException {
+        Path root = Paths.get(rootDir);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+
+        List<Path> leftovers;
+        try (Stream<Path> paths = Files.walk(root)) {
+            leftovers = paths
+                .filter(path -> path.getFileName().toString().endsWith(".idx" + COMPACT_SUFFIX))
+                .collect(Collectors.toList());
+        }
+
+        for (Path compactIndexPath : leftovers) {
+            String indexPath = compactIndexPath.toString();
+            indexPath = indexPath.substring(0, indexPath.length() - COMPACT_SUFFIX.length());
+            Path compactDataPath = Paths.get(indexPath.substring(0, indexPath.length() - ".idx".length()) + ".bfs" + COMPACT_SUFFIX);
+
+            if (Files.exists(compactDataPath)) {
+                Files.delete(compactDataPath);
+                Files.delete(compactIndexPath);
+                logger.info("Rolled back interrupted compaction of {}", indexPath);
+            } else {
+                Files.move(compactIndexPath, Paths.get(indexPath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                logger.info("Completed interrupted compaction of {}", indexPath);
+            }
+        }
+
+        // A data copy that never got as far as its index copy is just garbage
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.filter(path -> path.getFileName().toString().endsWith(".bfs" + COMPACT_SUFFIX)).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    // Buckets are keyed by the first four hash bytes: <b0>/<b1>/<b2>/<b3>
+    private String getBucketPath(BlockHash hash) {
+        String prefix = hash.prefixHex(4);
+        return Paths.get(rootDir, prefix.substring(0, 2), prefix.substring(2, 4), prefix.substring(4, 6), prefix.substring(6, 8)).toString();
+    }
+}
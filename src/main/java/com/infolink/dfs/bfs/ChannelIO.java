@@ -0,0 +1,45 @@
+package com.infolink.dfs.bfs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Positional FileChannel helpers. Positional reads and writes leave the
+ * channel position alone, so concurrent callers can share one channel.
+ */
+final class ChannelIO {
+
+    private ChannelIO() {
+    }
+
+    // Opener for data file handles; creates the bucket directories on first use
+    static FileChannel openDataFile(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    static byte[] readFully(FileChannel channel, long position, int length) throws IOException {
+        byte[] data = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at position " + (position + buffer.position()));
+            }
+        }
+        return data;
+    }
+
+    // Write the whole buffer at the given position and return the position after it
+    static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+}
@@ -0,0 +1,37 @@
+package com.infolink.dfs.bfs;
+
+/**
+ * Outcome of one compaction pass.
+ */
+public class CompactionResult {
+    private int filesCompacted;     // Bucket pairs rewritten, segments dropped or segment index rewritten
+    private int blocksPurged;       // Zero-reference blocks removed
+    private long bytesReclaimed;    // Disk space released
+
+    public void addFile(int blocksPurged, long bytesReclaimed) {
+        this.filesCompacted++;
+        this.blocksPurged += blocksPurged;
+        this.bytesReclaimed += bytesReclaimed;
+    }
+
+    public int getFilesCompacted() {
+        return filesCompacted;
+    }
+
+    public int getBlocksPurged() {
+        return blocksPurged;
+    }
+
+    public long getBytesReclaimed() {
+        return bytesReclaimed;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactionResult{" +
+                "filesCompacted=" + filesCompacted +
+                ", blocksPurged=" + blocksPurged +
+                ", bytesReclaimed=" + bytesReclaimed +
+                '}';
+    }
+}
@@ -0,0 +1,158 @@
+package com.infolink.dfs.bfs;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Batches fsyncs of block and index files. Writers mark the files they touched
+ * as dirty; one force per dirty file then covers every write made before it.
+ *
+ * NONE leaves flushing to the operating system. INTERVAL forces dirty files
+ * from a background thread every interval, trading a bounded loss window for
+ * throughput. BATCH makes each writer wait until its files are forced: the
+ * first waiter syncs everything dirty so far while later writers queue up
+ * for the next round, so one force acknowledges the whole batch.
+ */
+public class GroupCommitter {
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitter.class);
+
+    public enum Policy {
+        NONE,
+        INTERVAL,
+        BATCH
+    }
+
+    @FunctionalInterface
+    public interface Syncer {
+        void force(String path) throws IOException;
+    }
+
+    private final Policy policy;
+    private final Map<String, Syncer> dirty = new LinkedHashMap<>();   // Guarded by this
+    private long writeSequence;     // Last ticket handed out
+    private long syncedSequence;    // All tickets up to this one are durable
+    private boolean syncing;        // A batch is being forced outside the monitor
+    private long syncCount;
+    private ScheduledExecutorService scheduler;
+
+    public GroupCommitter(Policy policy, long intervalMillis) {
+        this.policy = policy;
+        if (policy == Policy.INTERVAL) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "block-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::syncQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    // Record a written file and return the ticket to wait for
+    public synchronized long markDirty(String path, Syncer syncer) {
+        if (policy == Policy.NONE) {
+            return 0;
+        }
+        dirty.putIfAbsent(path, syncer);
+        return ++writeSequence;
+    }
+
+    // Under BATCH, block until the write with the given ticket is on disk
+    public void awaitDurable(long ticket) throws IOException {
+        if (policy == Policy.BATCH) {
+            syncUpTo(ticket);
+        }
+    }
+
+    // Force everything written so far
+    public void sync() throws IOException {
+        long ticket;
+        synchronized (this) {
+            ticket = writeSequence;
+        }
+        syncUpTo(ticket);
+    }
+
+    public synchronized long getSyncCount() {
+        return syncCount;
+    }
+
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        syncQuietly();
+    }
+
+    private void syncUpTo(long ticket) throws IOException {
+        while (true) {
+            Map<String, Syncer> batch;
+            long target;
+            synchronized (this) {
+                while (syncing && syncedSequence < ticket) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for block sync", e);
+                    }
+                }
+                if (syncedSequence >= ticket) {
+                    return;
+                }
+
+                // Lead the next batch: take everything dirty up to now
+                batch = new LinkedHashMap<>(dirty);
+                dirty.clear();
+                target = writeSequence;
+                syncing = true;
+            }
+            forceBatch(batch, target);
+        }
+    }
+
+    // Force outside the monitor, so writers keep queueing up while the disk flushes
+    private void forceBatch(Map<String, Syncer> batch, long target) throws IOException {
+        IOException failure = null;
+        for (Map.Entry<String, Syncer> entry : batch.entrySet()) {
+            try {
+                entry.getValue().force(entry.getKey());
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        synchronized (this) {
+            syncing = false;
+            if (failure == null) {
+                syncedSequence = Math.max(syncedSequence, target);
+                syncCount++;
+            } else {
+                // Keep the files dirty so the next round retries them
+                batch.forEach(dirty::putIfAbsent);
+            }
+            notifyAll();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            logger.error("Error syncing block files: {}", e.getMessage());
+        }
+    }
+}
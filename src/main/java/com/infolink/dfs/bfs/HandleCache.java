@@ -0,0 +1,180 @@
+package com.infolink.dfs.bfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded LRU cache of open file handles keyed by path, so block operations
+ * reuse long-lived channels instead of opening and closing files each time.
+ * Callers pin a handle with acquire() and release it by closing the returned
+ * Handle. Eviction skips pinned handles, so there is only ever one cached
+ * handle per path and appends through it cannot race with a second copy. A
+ * handle invalidated while pinned is closed on its last release. Files are
+ * opened outside the cache monitor, so misses on different paths do not wait
+ * for each other; when two threads open the same path at once, the copy that
+ * loses the race is closed unused.
+ */
+public class HandleCache<T extends Closeable> implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(HandleCache.class);
+
+    @FunctionalInterface
+    public interface Opener<T> {
+        T open(Path path) throws IOException;
+    }
+
+    private final int capacity;
+    private final Opener<T> opener;
+    private final LinkedHashMap<Path, Handle<T>> handles = new LinkedHashMap<>(16, 0.75f, true);
+    private long invalidations;     // Guarded by this; bumped whenever cached handles are dropped
+
+    public HandleCache(int capacity, Opener<T> opener) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Handle cache capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.opener = opener;
+    }
+
+    public Handle<T> acquire(Path path) throws IOException {
+        while (true) {
+            long seenInvalidations;
+            synchronized (this) {
+                Handle<T> handle = handles.get(path);
+                if (handle != null) {
+                    handle.pins++;
+                    return handle;
+                }
+                seenInvalidations = invalidations;
+            }
+
+            // Open outside the monitor; opening may create directories and hit the disk
+            Handle<T> opened = new Handle<>(this, opener.open(path));
+            List<Handle<T>> evicted = new ArrayList<>();
+            Handle<T> handle;
+            synchronized (this) {
+                handle = handles.get(path);
+                if (handle == null && invalidations == seenInvalidations) {
+                    handle = opened;
+                    handles.put(path, handle);
+
+                    // Drop least recently used idle handles beyond the capacity
+                    Iterator<Map.Entry<Path, Handle<T>>> eldest = handles.entrySet().iterator();
+                    while (handles.size() > capacity && eldest.hasNext()) {
+                        Handle<T> victim = eldest.next().getValue();
+                        if (victim != handle && victim.pins == 0) {
+                            eldest.remove();
+                            evicted.add(victim);
+                        }
+                    }
+                }
+                if (handle != null) {
+                    handle.pins++;
+                }
+            }
+
+            if (handle != opened) {
+                // Another thread cached the path first, or the file may have been replaced
+                // while it was being opened; the copy opened here is never used
+                opened.closeResource();
+            }
+            retireAll(evicted);
+            if (handle != null) {
+                return handle;
+            }
+        }
+    }
+
+    // Close the cached handle of a file that is about to be replaced or deleted
+    public void invalidate(Path path) {
+        Handle<T> handle;
+        synchronized (this) {
+            handle = handles.remove(path);
+            invalidations++;
+        }
+        if (handle != null) {
+            retireAll(List.of(handle));
+        }
+    }
+
+    public void invalidateAll() {
+        List<Handle<T>> all;
+        synchronized (this) {
+            all = new ArrayList<>(handles.values());
+            handles.clear();
+            invalidations++;
+        }
+        retireAll(all);
+    }
+
+    public synchronized int size() {
+        return handles.size();
+    }
+
+    @Override
+    public void close() {
+        invalidateAll();
+    }
+
+    private void retireAll(List<Handle<T>> retired) {
+        for (Handle<T> handle : retired) {
+            boolean unpinned;
+            synchronized (this) {
+                handle.retired = true;
+                unpinned = handle.pins == 0;
+            }
+            if (unpinned) {
+                handle.closeResource();
+            }
+        }
+    }
+
+    private void release(Handle<T> handle) {
+        boolean closeNow;
+        synchronized (this) {
+            handle.pins--;
+            closeNow = handle.retired && handle.pins == 0;
+        }
+        if (closeNow) {
+            handle.closeResource();
+        }
+    }
+
+    public static class Handle<T extends Closeable> implements AutoCloseable {
+        private final HandleCache<T> cache;
+        private final T resource;
+        private int pins;           // Guarded by the cache monitor
+        private boolean retired;    // Guarded by the cache monitor
+
+        private Handle(HandleCache<T> cache, T resource) {
+            this.cache = cache;
+            this.resource = resource;
+        }
+
+        public T get() {
+            return resource;
+        }
+
+        // Release the pin; this does not close the cached resource
+        @Override
+        public void close() {
+            cache.release(this);
+        }
+
+        private void closeResource() {
+            try {
+                resource.close();
+            } catch (IOException e) {
+                logger.warn("Error closing cached file handle: {}", e.getMessage());
+            }
+        }
+    }
+}
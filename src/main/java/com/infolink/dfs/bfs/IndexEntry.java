@@ -0,0 +1,29 @@
+package com.infolink.dfs.bfs;
+
+/**
+ * Location of a block's schema record: the index file holding it and the
+ * record slot inside that file, together with the schema itself.
+ */
+public class IndexEntry {
+    private final String indexFilePath;   // Index file the record lives in
+    private final long slot;              // Record number inside the index file
+    private final BlockSchema schema;     // Cached copy of the record
+
+    public IndexEntry(String indexFilePath, long slot, BlockSchema schema) {
+        this.indexFilePath = indexFilePath;
+        this.slot = slot;
+        this.schema = schema;
+    }
+
+    public String getIndexFilePath() {
+        return indexFilePath;
+    }
+
+    public long getSlot() {
+        return slot;
+    }
+
+    public BlockSchema getSchema() {
+        return schema;
+    }
+}
@@ -0,0 +1,43 @@
+package com.infolink.dfs.bfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A .idx file: a format header followed by fixed-width BlockSchema records
+ * addressed by slot number (see IndexFormat). Implementations differ only in
+ * how the bytes are accessed.
+ */
+public interface IndexFile extends Closeable {
+
+    enum Mode {
+        RAF,    // RandomAccessFile reads and writes
+        MMAP    // FileChannel.map, records decoded from the mapped buffer
+    }
+
+    static IndexFile open(Mode mode, String path) throws IOException {
+        if (mode == Mode.MMAP) {
+            return new MappedIndexFile(path);
+        }
+        return new RandomAccessIndexFile(path);
+    }
+
+    long getRecordCount();
+
+    BlockSchema read(long slot) throws IOException;
+
+    // All records in slot order
+    List<BlockSchema> readAll() throws IOException;
+
+    // Append a record and return its slot
+    long append(BlockSchema schema) throws IOException;
+
+    void write(long slot, BlockSchema schema) throws IOException;
+
+    // Overwrite only the reference count field of a record
+    void writeReferenceCount(long slot, int referenceCount) throws IOException;
+
+    // Flush written records to the storage device
+    void force() throws IOException;
+}
@@ -0,0 +1,159 @@
+package com.infolink.dfs.bfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.infolink.dfs.shared.BlockHash;
+
+/**
+ * On-disk layout of .idx files: a fixed header (magic, format version, record
+ * size) followed by the BlockSchema records. Index files without a header
+ * are refused, except those of the original layout with 97-byte records and
+ * a hex hash, which are converted at startup.
+ */
+final class IndexFormat {
+    private static final Logger logger = LoggerFactory.getLogger(IndexFormat.class);
+
+    static final int MAGIC = 0x44464958;    // "DFIX"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;      // magic, version, record size, reserved
+    static final int RECORD_SIZE = BlockSchema.getSerializedSize();
+
+    private static final int LEGACY_HASH_LENGTH = 64;
+    private static final int LEGACY_RECORD_SIZE = LEGACY_HASH_LENGTH + Long.BYTES + Integer.BYTES * 2 + 1 + Long.BYTES * 2;
+    private static final String UPGRADE_SUFFIX = ".upgrade";
+    private static final int SCAN_RECORDS = 256;
+    private static final int UPGRADE_RECORDS = 4096;
+
+    private IndexFormat() {
+    }
+
+    // Byte position of a record slot in the file
+    static long position(long slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    // Write the header of a new file, or check the header of an existing one.
+    // Returns the number of records in the file.
+    static long open(FileChannel channel, String path) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            // New file, or a crash before its header was complete; no records either way
+            ChannelIO.writeFully(channel, header(), 0);
+            return 0;
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(ChannelIO.readFully(channel, 0, HEADER_SIZE));
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Index file " + path + " has no format header. It was written by an older version"
+                + " and could not be converted; move the block directory aside and rebuild it.");
+        }
+        int version = header.getInt();
+        int recordSize = header.getInt();
+        if (version != VERSION || recordSize != RECORD_SIZE) {
+            throw new IOException("Index file " + path + " has format version " + version + " with " + recordSize
+                + "-byte records; this version reads format " + VERSION + " with " + RECORD_SIZE + "-byte records.");
+        }
+        // A mapping grown ahead of the appends leaves zero-filled slots at the end
+        // if the file was not closed cleanly; those are free, not records
+        return trimZeroRecords(channel, (size - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    // Convert an index file of the original headerless layout in place. Returns false,
+    // leaving the file alone, if it has a header already or is not in that layout.
+    // Only the header is read from current files; legacy ones are converted in chunks.
+    static boolean upgradeLegacy(Path path) throws IOException {
+        Path upgradePath = Paths.get(path.toString() + UPGRADE_SUFFIX);
+        long records;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size == 0 || size % LEGACY_RECORD_SIZE != 0
+                    || (size >= Integer.BYTES && ByteBuffer.wrap(ChannelIO.readFully(in, 0, Integer.BYTES)).getInt() == MAGIC)) {
+                return false;
+            }
+
+            // Write the converted copy next to the file, then swap it in
+            records = size / LEGACY_RECORD_SIZE;
+            boolean converted = false;
+            try (FileChannel out = FileChannel.open(upgradePath,
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ChannelIO.writeFully(out, header(), 0);
+                for (long record = 0; record < records; record += UPGRADE_RECORDS) {
+                    int count = (int) Math.min(UPGRADE_RECORDS, records - record);
+                    ByteBuffer legacy = ByteBuffer.wrap(ChannelIO.readFully(in, record * LEGACY_RECORD_SIZE, count * LEGACY_RECORD_SIZE));
+                    ByteBuffer current = ByteBuffer.allocate(count * RECORD_SIZE);
+                    if (!convertRecords(legacy, current)) {
+                        return false;
+                    }
+                    current.flip();
+                    ChannelIO.writeFully(out, current, position(record));
+                }
+                out.force(true);
+                converted = true;
+            } finally {
+                if (!converted) {
+                    Files.deleteIfExists(upgradePath);
+                }
+            }
+        }
+        Files.move(upgradePath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Converted index file {} to format version {} ({} records)", path, VERSION, records);
+        return true;
+    }
+
+    // Returns false if a record does not hold hex text where the hash goes, so the
+    // file is not in the original layout after all
+    private static boolean convertRecords(ByteBuffer in, ByteBuffer out) {
+        while (in.hasRemaining()) {
+            byte[] hashBytes = new byte[LEGACY_HASH_LENGTH];
+            in.get(hashBytes);
+            BlockHash hash;
+            try {
+                hash = BlockHash.fromHex(new String(hashBytes, StandardCharsets.US_ASCII).trim());
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            long offset = in.getLong();
+            int referenceCount = in.getInt();
+            int size = in.getInt();
+            boolean encrypted = in.get() != 0;
+            long createdTimestamp = in.getLong();
+            long modifiedTimestamp = in.getLong();
+            new BlockSchema(hash, offset, referenceCount, size, encrypted, createdTimestamp, modifiedTimestamp).writeTo(out);
+        }
+        return true;
+    }
+
+    private static long trimZeroRecords(FileChannel channel, long count) throws IOException {
+        while (count > 0) {
+            int records = (int) Math.min(SCAN_RECORDS, count);
+            byte[] tail = ChannelIO.readFully(channel, position(count - records), records * RECORD_SIZE);
+            for (int record = records - 1; record >= 0; record--) {
+                for (int i = record * RECORD_SIZE; i < (record + 1) * RECORD_SIZE; i++) {
+                    if (tail[i] != 0) {
+                        return count - records + record + 1;
+                    }
+                }
+            }
+            count -= records;
+        }
+        return 0;
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0);
+        header.flip();
+        return header;
+    }
+}
@@ -0,0 +1,40 @@
+package com.infolink.dfs.bfs;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the byte rate of background I/O such as compaction, so it leaves disk
+ * bandwidth for foreground reads and writes. A rate of zero or less disables
+ * throttling.
+ */
+public class IoThrottle {
+    private final long bytesPerSecond;
+    private long nextFreeNanos = System.nanoTime();
+
+    public IoThrottle(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    // Block until the given number of bytes fits within the rate
+    public void acquire(long bytes) {
+        if (bytesPerSecond <= 0 || bytes <= 0) {
+            return;
+        }
+
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextFreeNanos);
+            nextFreeNanos = start + TimeUnit.SECONDS.toNanos(1) * bytes / bytesPerSecond;
+            waitNanos = start - now;
+        }
+
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.infolink.dfs.bfs;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index file accessed through a MappedByteBuffer. Records are decoded straight
+ * from the mapping and updates are plain memory writes into the page cache.
+ * Appends go through one positional channel write. The mapping is extended
+ * the next time a slot beyond it is touched, to twice the records needed, so
+ * a file that keeps growing is remapped only now and then. Grown mappings
+ * zero-fill the file ahead of the records; close() trims that headroom and
+ * IndexFormat ignores it after a crash. Replaced mappings are unmapped at
+ * once rather than when the buffers are collected.
+ */
+public class MappedIndexFile implements IndexFile {
+    private static final Logger logger = LoggerFactory.getLogger(MappedIndexFile.class);
+    private static final long MIN_MAPPED_RECORDS = 16;
+
+    // sun.misc.Unsafe.invokeCleaner, the only way to unmap a buffer on Java 17
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("Index mappings will be released by the garbage collector: {}", e.getMessage());
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final FileChannel channel;
+    private MappedByteBuffer mapping;
+    private long recordCount;
+
+    public MappedIndexFile(String path) throws IOException {
+        this.channel = FileChannel.open(Paths.get(path),
+            StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        this.recordCount = IndexFormat.open(channel, path);
+    }
+
+    @Override
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public synchronized BlockSchema read(long slot) throws IOException {
+        ByteBuffer view = mappingFor(slot).duplicate();
+        view.position(position(slot));
+        return BlockSchema.readFrom(view);
+    }
+
+    @Override
+    public synchronized List<BlockSchema> readAll() throws IOException {
+        List<BlockSchema> schemas = new ArrayList<>((int) recordCount);
+        if (recordCount == 0) {
+            return schemas;
+        }
+
+        ByteBuffer view = mappingFor(recordCount - 1).duplicate();
+        view.position(IndexFormat.HEADER_SIZE);
+        for (long slot = 0; slot < recordCount; slot++) {
+            schemas.add(BlockSchema.readFrom(view));
+        }
+        return schemas;
+    }
+
+    @Override
+    public synchronized long append(BlockSchema schema) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(IndexFormat.RECORD_SIZE);
+        schema.writeTo(record);
+        record.flip();
+
+        long slot = recordCount;
+        long position = IndexFormat.position(slot);
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        recordCount++;
+        return slot;
+    }
+
+    @Override
+    public synchronized void write(long slot, BlockSchema schema) throws IOException {
+        ByteBuffer view = mappingFor(slot).duplicate();
+        view.position(position(slot));
+        schema.writeTo(view);
+    }
+
+    @Override
+    public synchronized void writeReferenceCount(long slot, int referenceCount) throws IOException {
+        mappingFor(slot).putInt(position(slot) + BlockSchema.REFERENCE_COUNT_POSITION, referenceCount);
+    }
+
+    @Override
+    public synchronized void force() throws IOException {
+        // Records updated in place live in the mapping, appended ones in the channel
+        if (mapping != null) {
+            mapping.force();
+        }
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        unmap(mapping);
+        mapping = null;
+        try {
+            // Drop the zero-filled headroom of the last mapping
+            if (channel.size() > IndexFormat.position(recordCount)) {
+                channel.truncate(IndexFormat.position(recordCount));
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Mapping that covers the given slot, remapped with headroom if needed
+    private MappedByteBuffer mappingFor(long slot) throws IOException {
+        if (slot < 0 || slot >= recordCount) {
+            throw new IOException("Index slot " + slot + " is out of range (records=" + recordCount + ").");
+        }
+
+        long required = IndexFormat.position(slot + 1);
+        if (mapping == null || mapping.capacity() < required) {
+            if (required > Integer.MAX_VALUE) {
+                throw new IOException("Index file is too large to map: " + required + " bytes.");
+            }
+            long records = Math.max(MIN_MAPPED_RECORDS, 2 * recordCount);
+            long size = Math.min(IndexFormat.position(records), Integer.MAX_VALUE);
+
+            // Every method is synchronized and no view escapes one, so nothing uses the old mapping
+            unmap(mapping);
+            mapping = null;
+            mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        return mapping;
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null || INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+            logger.warn("Error unmapping index file: {}", e.getMessage());
+        }
+    }
+
+    private static int position(long slot) {
+        return (int) IndexFormat.position(slot);
+    }
+}
@@ -0,0 +1,74 @@
+package com.infolink.dfs.bfs;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RandomAccessIndexFile implements IndexFile {
+    private final RandomAccessFile raf;
+    private long recordCount;
+
+    public RandomAccessIndexFile(String path) throws IOException {
+        this.raf = new RandomAccessFile(path, "rw");
+        this.recordCount = IndexFormat.open(raf.getChannel(), path);
+    }
+
+    @Override
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public synchronized BlockSchema read(long slot) throws IOException {
+        raf.seek(IndexFormat.position(slot));
+        return BlockSchema.readFrom(raf);
+    }
+
+    @Override
+    public synchronized List<BlockSchema> readAll() throws IOException {
+        // One read for the whole file, then decode in memory
+        byte[] bytes = new byte[Math.toIntExact(recordCount * IndexFormat.RECORD_SIZE)];
+        raf.seek(IndexFormat.HEADER_SIZE);
+        raf.readFully(bytes);
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        List<BlockSchema> schemas = new ArrayList<>((int) recordCount);
+        for (long slot = 0; slot < recordCount; slot++) {
+            schemas.add(BlockSchema.readFrom(buffer));
+        }
+        return schemas;
+    }
+
+    @Override
+    public synchronized long append(BlockSchema schema) throws IOException {
+        long slot = recordCount;
+        raf.seek(IndexFormat.position(slot));
+        schema.writeTo(raf);
+        recordCount++;
+        return slot;
+    }
+
+    @Override
+    public synchronized void write(long slot, BlockSchema schema) throws IOException {
+        raf.seek(IndexFormat.position(slot));
+        schema.writeTo(raf);
+    }
+
+    @Override
+    public synchronized void writeReferenceCount(long slot, int referenceCount) throws IOException {
+        raf.seek(IndexFormat.position(slot) + BlockSchema.REFERENCE_COUNT_POSITION);
+        raf.writeInt(referenceCount);
+    }
+
+    @Override
+    public void force() throws IOException {
+        raf.getChannel().force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        raf.close();
+    }
+}
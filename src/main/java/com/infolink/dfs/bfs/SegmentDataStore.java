@@ -0,0 +1,178 @@
+package com.infolink.dfs.bfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.infolink.dfs.shared.BlockHash;
+
+/**
+ * Append-only block log. New blocks are appended to the active segment file,
+ * which is kept open and rolled over once it reaches the configured size. All
+ * blocks share a single index file, so the store needs a handful of inodes
+ * instead of one pair of files per bucket.
+ */
+public class SegmentDataStore implements BlockDataStore {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentDataStore.class);
+    private static final String SEGMENT_DIR = "segments";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_FILE_NAME = "segments.idx";
+    private static final String REWRITE_SUFFIX = ".rewrite";
+
+    private final Path segmentDir;
+    private final long maxSegmentSize;
+    private final HandleCache<FileChannel> segmentFiles;
+
+    private int activeSegment = -1;
+    private FileChannel activeChannel;
+    private long activeSize;
+    private int evacuatingSegment = -1;    // Being emptied by compaction; never appended to
+
+    public SegmentDataStore(String rootDir, long maxSegmentSize, int maxOpenFiles) {
+        this.segmentDir = Paths.get(rootDir, SEGMENT_DIR);
+        this.maxSegmentSize = maxSegmentSize;
+        this.segmentFiles = new HandleCache<>(maxOpenFiles, ChannelIO::openDataFile);
+    }
+
+    @Override
+    public String getIndexFilePath(BlockHash hash) {
+        return segmentDir.resolve(INDEX_FILE_NAME).toString();
+    }
+
+    @Override
+    public String getDataFilePath(BlockHash hash, BlockSchema schema) {
+        return getSegmentPath(schema.getSegment()).toString();
+    }
+
+    @Override
+    public synchronized void write(BlockHash hash, BlockSchema schema, byte[] data) throws IOException {
+        if (activeChannel == null || activeSegment == evacuatingSegment
+                || (activeSize > 0 && activeSize + schema.getSize() > maxSegmentSize)) {
+            rollSegment();
+        }
+
+        long offset = activeSize;
+        activeSize = ChannelIO.writeFully(activeChannel, ByteBuffer.wrap(data, 0, schema.getSize()), offset);
+
+        schema.setSegment(activeSegment);
+        schema.setOffset(offset);
+    }
+
+    @Override
+    public byte[] read(BlockHash hash, BlockSchema schema) throws IOException {
+        try (HandleCache.Handle<FileChannel> handle = segmentFiles.acquire(getSegmentPath(schema.getSegment()))) {
+            return ChannelIO.readFully(handle.get(), schema.getOffset(), schema.getSize());
+        }
+    }
+
+    @Override
+    public BlockRegion openRegion(BlockHash hash, BlockSchema schema) throws IOException {
+        return new BlockRegion(segmentFiles.acquire(getSegmentPath(schema.getSegment())), schema.getOffset(), schema.getSize());
+    }
+
+    // fsync is per file, so any open channel of the segment will do
+    @Override
+    public void force(String dataFilePath) throws IOException {
+        Path path = Paths.get(dataFilePath);
+        if (!Files.exists(path)) {
+            return; // Removed by compaction after it was written
+        }
+        try (HandleCache.Handle<FileChannel> handle = segmentFiles.acquire(path)) {
+            handle.get().force(false);
+        }
+    }
+
+    // Drop the cached read handle of a segment that is about to be deleted
+    public void evict(int segment) {
+        segmentFiles.invalidate(getSegmentPath(segment));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        segmentFiles.close();
+        if (activeChannel != null) {
+            activeChannel.close();
+            activeChannel = null;
+        }
+        activeSegment = -1;
+        activeSize = 0;
+    }
+
+    // Temporary file the segment index is rewritten into by compaction
+    public Path getIndexRewritePath() {
+        return segmentDir.resolve(INDEX_FILE_NAME + REWRITE_SUFFIX);
+    }
+
+    // The rewrite only replaces the index once it is complete, so a leftover copy is garbage
+    public void recoverInterruptedIndexRewrite() throws IOException {
+        if (Files.deleteIfExists(getIndexRewritePath())) {
+            logger.info("Removed interrupted rewrite of the segment index");
+        }
+    }
+
+    // Segment that receives the next append; it is never compacted. After a restart
+    // no segment is open yet, so the newest one is picked up the way write() would.
+    public synchronized int openActiveSegment() throws IOException {
+        if (activeChannel == null) {
+            rollSegment();
+        }
+        return activeSegment;
+    }
+
+    // Compaction is about to copy the live blocks out of the segment; appends go elsewhere
+    public synchronized void beginEvacuation(int segment) {
+        evacuatingSegment = segment;
+    }
+
+    public synchronized void endEvacuation() {
+        evacuatingSegment = -1;
+    }
+
+    // Continue the newest segment if it still has room, otherwise start a new one
+    private void rollSegment() throws IOException {
+        if (activeChannel == null) {
+            Files.createDirectories(segmentDir);
+            int lastSegment = findLastSegment();
+            if (lastSegment >= 0 && lastSegment != evacuatingSegment && Files.size(getSegmentPath(lastSegment)) < maxSegmentSize) {
+                openSegment(lastSegment);
+                return;
+            }
+            openSegment(lastSegment + 1);
+            return;
+        }
+
+        activeChannel.close();
+        openSegment(activeSegment + 1);
+    }
+
+    private void openSegment(int segment) throws IOException {
+        activeChannel = FileChannel.open(getSegmentPath(segment),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        activeSegment = segment;
+        activeSize = activeChannel.size();
+        logger.debug("Active block segment {} (size={})", segment, activeSize);
+    }
+
+    private int findLastSegment() throws IOException {
+        try (Stream<Path> paths = Files.list(segmentDir)) {
+            return paths
+                .map(path -> path.getFileName().toString())
+                .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                .mapToInt(name -> Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                .max()
+                .orElse(-1);
+        }
+    }
+
+    public Path getSegmentPath(int segment) {
+        return segmentDir.resolve(String.format("%08d%s", segment, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,60 @@
+package com.infolink.dfs.chunk;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recycles the fixed-capacity buffers blocks are read into during uploads, so
+ * a steady upload stream reuses a working set of arrays instead of allocating
+ * one per block. acquire() never blocks: callers bound how many buffers they
+ * hold at once, and the pool only bounds how many idle ones it keeps.
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final int maxIdle;
+    private final ArrayDeque<byte[]> idle = new ArrayDeque<>();   // Guarded by this
+    private final LongAdder allocations = new LongAdder();
+
+    public BufferPool(int bufferSize, int maxIdle) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.maxIdle = maxIdle;
+    }
+
+    public byte[] acquire() {
+        synchronized (this) {
+            byte[] buffer = idle.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        allocations.increment();
+        return new byte[bufferSize];
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length != bufferSize) {
+            return;
+        }
+        synchronized (this) {
+            if (idle.size() < maxIdle) {
+                idle.push(buffer);
+            }
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    // Buffers created so far; flat under steady load once the pool is warm
+    public long getAllocations() {
+        return allocations.sum();
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+}
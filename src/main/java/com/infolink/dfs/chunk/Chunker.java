@@ -0,0 +1,38 @@
+package com.infolink.dfs.chunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits an upload stream into blocks. Every chunk becomes one stored block,
+ * so the chunker decides where dedupe can find repeated content.
+ */
+public interface Chunker {
+
+    enum Mode {
+        FIXED,  // Cut every dfs.block.size bytes
+        CDC     // Cut where the content says so (FastCDC), stable under inserts
+    }
+
+    static Chunker create(Mode mode, InputStream inputStream, ChunkingConfig config) {
+        if (mode == Mode.CDC) {
+            return new FastCdcChunker(inputStream, config.getMinSize(), config.getAvgSize(), config.getMaxSize());
+        }
+        return new FixedSizeChunker(inputStream, config.getBlockSize());
+    }
+
+    // Largest chunk this chunker cuts; buffers passed to nextChunk(byte[]) need this capacity
+    int getMaxChunkSize();
+
+    // Read the next chunk into the start of buffer and return its length, or -1 once
+    // the stream is exhausted. Lets the upload loop reuse pooled buffers.
+    int nextChunk(byte[] buffer) throws IOException;
+
+    // Next chunk of the stream as an exact-size array, or null once it is exhausted
+    default byte[] nextChunk() throws IOException {
+        byte[] buffer = new byte[getMaxChunkSize()];
+        int length = nextChunk(buffer);
+        return length < 0 ? null : Arrays.copyOf(buffer, length);
+    }
+}
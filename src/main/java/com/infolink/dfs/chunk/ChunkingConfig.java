@@ -0,0 +1,28 @@
+package com.infolink.dfs.chunk;
+
+// Sizes used by the chunkers, in bytes
+public class ChunkingConfig {
+    private final int blockSize;
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+
+    public ChunkingConfig(int blockSize, int minSize, int avgSize, int maxSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        if (minSize <= 0 || minSize > avgSize || avgSize > maxSize) {
+            throw new IllegalArgumentException(
+                "Chunk sizes must satisfy 0 < min <= avg <= max: " + minSize + ", " + avgSize + ", " + maxSize);
+        }
+        this.blockSize = blockSize;
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+    }
+
+    public int getBlockSize()   { return blockSize; }
+    public int getMinSize()     { return minSize; }
+    public int getAvgSize()     { return avgSize; }
+    public int getMaxSize()     { return maxSize; }
+}
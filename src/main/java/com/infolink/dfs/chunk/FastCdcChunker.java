@@ -0,0 +1,116 @@
+package com.infolink.dfs.chunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Content-defined chunking with the FastCDC scheme: a Gear rolling hash picks
+ * cut points from the content itself, so inserting a byte only changes the
+ * chunks around the edit instead of shifting every later block.
+ *
+ * Bytes before minSize are skipped without hashing. Up to avgSize a stricter
+ * mask makes cuts less likely, after it a looser one makes them more likely
+ * (normalized chunking), which keeps chunk sizes close to avgSize. A chunk is
+ * always cut at maxSize.
+ */
+public class FastCdcChunker implements Chunker {
+    // Fixed seed: cut points must be identical on every node and in every release
+    private static final long[] GEAR = new long[256];
+    static {
+        Random random = new Random(0x6a09e667f3bcc908L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final InputStream inputStream;
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long maskSmall;   // Before avgSize: more bits must be zero
+    private final long maskLarge;   // After avgSize: fewer bits must be zero
+
+    private final byte[] buffer;
+    private int start;
+    private int end;
+    private boolean eof;
+
+    public FastCdcChunker(InputStream inputStream, int minSize, int avgSize, int maxSize) {
+        this.inputStream = inputStream;
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+
+        // The gear hash shifts left, so its top bits depend on the widest window
+        int bits = 31 - Integer.numberOfLeadingZeros(avgSize);
+        this.maskSmall = topBits(bits + 1);
+        this.maskLarge = topBits(Math.max(1, bits - 1));
+        this.buffer = new byte[maxSize];
+    }
+
+    @Override
+    public int getMaxChunkSize() {
+        return maxSize;
+    }
+
+    @Override
+    public int nextChunk(byte[] chunk) throws IOException {
+        fill();
+        int available = end - start;
+        if (available == 0) {
+            return -1;
+        }
+
+        int length = cutPoint(buffer, start, available);
+        System.arraycopy(buffer, start, chunk, 0, length);
+        start += length;
+        return length;
+    }
+
+    // Length of the next chunk within data[offset, offset + length)
+    int cutPoint(byte[] data, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int limit = Math.min(length, maxSize);
+        int normal = Math.min(avgSize, limit);
+
+        long hash = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & maskSmall) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & maskLarge) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    // Keep up to maxSize bytes buffered, so a cut can always be decided
+    private void fill() throws IOException {
+        if (eof || end - start >= maxSize) {
+            return;
+        }
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        int read = inputStream.readNBytes(buffer, end, buffer.length - end);
+        end += read;
+        if (end < buffer.length) {
+            eof = true;
+        }
+    }
+
+    private static long topBits(int count) {
+        return count >= 64 ? -1L : -1L << (64 - count);
+    }
+}
@@ -0,0 +1,25 @@
+package com.infolink.dfs.chunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public class FixedSizeChunker implements Chunker {
+    private final InputStream inputStream;
+    private final int blockSize;
+
+    public FixedSizeChunker(InputStream inputStream, int blockSize) {
+        this.inputStream = inputStream;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public int getMaxChunkSize() {
+        return blockSize;
+    }
+
+    @Override
+    public int nextChunk(byte[] buffer) throws IOException {
+        int length = inputStream.readNBytes(buffer, 0, blockSize);
+        return length == 0 ? -1 : length;
+    }
+}
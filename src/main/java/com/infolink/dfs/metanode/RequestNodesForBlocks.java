@@ -0,0 +1,35 @@
+package com.infolink.dfs.metanode;
+
+import java.util.List;
+
+// Batched form of the nodes-for-block request; the response lists one
+// ResponseNodesForBlock per hash, in request order.
+public class RequestNodesForBlocks {
+    private List<String> hashes;
+    private String nodeUrl;
+
+    public RequestNodesForBlocks() {
+    }
+
+    public RequestNodesForBlocks(List<String> hashes, String nodeUrl) {
+        this.hashes = hashes;
+        this.nodeUrl = nodeUrl;
+    }
+
+    // Getters and Setters
+    public List<String> getHashes() {
+        return hashes;
+    }
+
+    public void setHashes(List<String> hashes) {
+        this.hashes = hashes;
+    }
+
+    public String getNodeUrl() {
+        return nodeUrl;
+    }
+
+    public void setNodeUrl(String nodeUrl) {
+        this.nodeUrl = nodeUrl;
+    }
+}
@@ -0,0 +1,90 @@
+package com.infolink.dfs.shared;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format for moving many blocks in one request or response body: a
+ * sequence of frames, each the 32-byte binary hash, a 4-byte big-endian length
+ * and that many bytes of block data. A length of MISSING marks a block the
+ * sender does not have; the frame then carries no data.
+ */
+public final class BlockFrames {
+    public static final int HEADER_SIZE = BlockHash.LENGTH + Integer.BYTES;
+    public static final int MISSING = -1;
+
+    private BlockFrames() {
+    }
+
+    public static class Frame {
+        private final BlockHash hash;
+        private final int length;
+        private final byte[] data;
+
+        Frame(BlockHash hash, int length, byte[] data) {
+            this.hash = hash;
+            this.length = length;
+            this.data = data;
+        }
+
+        public BlockHash getHash()  { return hash; }
+        public int getLength()      { return length; }
+
+        // Block data, or null for a missing block or one over the size limit
+        public byte[] getData()     { return data; }
+
+        public boolean isMissing() {
+            return length == MISSING;
+        }
+    }
+
+    // Next frame, or null at the end of the stream. Data longer than maxLength is
+    // skipped, so one oversized block does not stop the rest of the stream.
+    public static Frame read(DataInputStream in, int maxLength) throws IOException {
+        byte[] hash = new byte[BlockHash.LENGTH];
+        int read = in.readNBytes(hash, 0, hash.length);
+        if (read == 0) {
+            return null;
+        }
+        if (read < hash.length) {
+            throw new EOFException("Block frame cut off in its hash");
+        }
+
+        int length = in.readInt();
+        if (length == MISSING) {
+            return new Frame(BlockHash.of(hash), length, null);
+        }
+        if (length < 0) {
+            throw new IOException("Invalid block frame length: " + length);
+        }
+        if (length > maxLength) {
+            in.skipNBytes(length);
+            return new Frame(BlockHash.of(hash), length, null);
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new Frame(BlockHash.of(hash), length, data);
+    }
+
+    public static void write(DataOutputStream out, BlockHash hash, byte[] data, int offset, int length) throws IOException {
+        hash.writeTo(out);
+        out.writeInt(length);
+        out.write(data, offset, length);
+    }
+
+    public static void writeMissing(DataOutputStream out, BlockHash hash) throws IOException {
+        hash.writeTo(out);
+        out.writeInt(MISSING);
+    }
+
+    // Frame header for a block of the given length, for senders that stream the data separately
+    public static byte[] header(BlockHash hash, int length) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        hash.writeTo(header);
+        header.putInt(length);
+        return header.array();
+    }
+}
@@ -0,0 +1,109 @@
+package com.infolink.dfs.shared;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HexFormat;
+
+/**
+ * Immutable 32-byte SHA-256 block hash. The digest is held as four longs so
+ * equals/hashCode are a handful of primitive compares; the hex form is only
+ * produced at the API edge (REST paths, metanode requests, DfsFile metadata).
+ */
+public final class BlockHash {
+    public static final int LENGTH = 32; // SHA-256 digest length in bytes
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final long h0;
+    private final long h1;
+    private final long h2;
+    private final long h3;
+
+    private BlockHash(long h0, long h1, long h2, long h3) {
+        this.h0 = h0;
+        this.h1 = h1;
+        this.h2 = h2;
+        this.h3 = h3;
+    }
+
+    // Wrap a raw 32-byte digest
+    public static BlockHash of(byte[] digest) {
+        if (digest == null || digest.length != LENGTH) {
+            throw new IllegalArgumentException("A block hash must be " + LENGTH + " bytes.");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(digest);
+        return new BlockHash(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    // Parse the 64-char hex form used on the wire
+    public static BlockHash fromHex(String hex) {
+        if (hex == null || hex.length() != LENGTH * 2) {
+            throw new IllegalArgumentException("Invalid block hash: " + hex);
+        }
+        try {
+            return new BlockHash(
+                HexFormat.fromHexDigitsToLong(hex, 0, 16),
+                HexFormat.fromHexDigitsToLong(hex, 16, 32),
+                HexFormat.fromHexDigitsToLong(hex, 32, 48),
+                HexFormat.fromHexDigitsToLong(hex, 48, 64));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid block hash: " + hex, e);
+        }
+    }
+
+    public static BlockHash readFrom(DataInput in) throws IOException {
+        return new BlockHash(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+    }
+
+    public static BlockHash readFrom(ByteBuffer buffer) {
+        return new BlockHash(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(h0);
+        out.writeLong(h1);
+        out.writeLong(h2);
+        out.writeLong(h3);
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putLong(h0).putLong(h1).putLong(h2).putLong(h3);
+    }
+
+    public byte[] toBytes() {
+        return ByteBuffer.allocate(LENGTH).putLong(h0).putLong(h1).putLong(h2).putLong(h3).array();
+    }
+
+    public String toHex() {
+        return HEX.toHexDigits(h0) + HEX.toHexDigits(h1) + HEX.toHexDigits(h2) + HEX.toHexDigits(h3);
+    }
+
+    // Hex of the leading byteCount bytes, used to derive storage bucket paths
+    public String prefixHex(int byteCount) {
+        return HEX.toHexDigits(h0).substring(0, byteCount * 2);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof BlockHash)) {
+            return false;
+        }
+        BlockHash that = (BlockHash) other;
+        return h0 == that.h0 && h1 == that.h1 && h2 == that.h2 && h3 == that.h3;
+    }
+
+    @Override
+    public int hashCode() {
+        // SHA-256 output is uniformly distributed, so any 32 bits will do
+        return (int) (h0 ^ (h0 >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
@@ -34,6 +34,7 @@ public class DfsFile {
     
     // For files, contains content hash and block hashes
     private List<String> blockHashes; // For chunked storage if needed
+    private List<Integer> blockSizes; // Length of each block in blockHashes; null for files stored before sizes were kept
     
 	public String getName() {
 		return name;
@@ -71,6 +72,12 @@ public class DfsFile {
 	public void setBlockHashes(List<String> blockHashes) {
 		this.blockHashes = blockHashes;
 	}
+	public List<Integer> getBlockSizes() {
+		return blockSizes;
+	}
+	public void setBlockSizes(List<Integer> blockSizes) {
+		this.blockSizes = blockSizes;
+	}
 	public String getOwner() {
 		return owner;
 	}
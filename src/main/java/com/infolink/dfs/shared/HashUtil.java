@@ -2,41 +2,49 @@ package com.infolink.dfs.shared;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 
 public class HashUtil {
+    private static final HexFormat HEX = HexFormat.of();
+
+    // One digest per thread, so hashing a block does not look up a provider each time
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
 
     // Calculate the SHA-256 hash of the input byte array
     public static String calculateHash(byte[] input) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hashBytes = digest.digest(input);
-        
-        // Convert byte array to hex string
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hashBytes) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) {
-                hexString.append('0');
-            }
-            hexString.append(hex);
-        }
-        return hexString.toString();
+        return calculateHash(input, input.length);
     }
     
     public static String calculateHash(byte[] input, int size) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        digest.update(input, 0, size); // Use only the relevant part of the input array.
-        byte[] hashBytes = digest.digest();
-
         // Convert byte array to hex string.
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hashBytes) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) {
-                hexString.append('0');
-            }
-            hexString.append(hex);
-        }
-        return hexString.toString();
+        return HEX.formatHex(digest(input, 0, size));
+    }
+
+    // Calculate the SHA-256 hash of input[offset, offset + length) as a binary block hash
+    public static BlockHash calculateBlockHash(byte[] input, int offset, int length) {
+        return BlockHash.of(digest(input, offset, length));
+    }
+
+    public static BlockHash calculateBlockHash(byte[] input) {
+        return calculateBlockHash(input, 0, input.length);
     }
 
+    // This thread's SHA-256 digest, reset, for hashing data as it arrives
+    public static MessageDigest blockDigest() {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        return digest;
+    }
+
+    private static byte[] digest(byte[] input, int offset, int length) {
+        MessageDigest digest = SHA256.get();
+        digest.update(input, offset, length); // Use only the relevant part of the input array.
+        return digest.digest();
+    }
 }
@@ -1,23 +1,33 @@
 package com.infolink.dfs;
 
 import com.infolink.dfs.BlockController.RequestStoreBlock;
+import com.infolink.dfs.shared.BlockFrames;
+import com.infolink.dfs.shared.BlockHash;
 import com.infolink.dfs.shared.HashUtil;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
@@ -118,4 +128,74 @@ public class BlockControllerTest {
         // Assert the response status for a block not found
         assertEquals(HttpStatus.NO_CONTENT, response.getStatusCode(), "Should return NO_CONTENT for a non-existent block.");
     }
+
+    @Test
+    public void testStoreBlockBytes() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        String storeUrl = "http://localhost:" + port + "/dfs/block/store/" + hash;
+
+        // Raw block bytes with the hash in the path
+        ResponseEntity<String> response = restTemplate.exchange(
+                storeUrl, HttpMethod.POST, new HttpEntity<>(block, headers), String.class);
+        assertEquals(HttpStatus.CREATED, response.getStatusCode());
+
+        String readUrl = "http://localhost:" + port + "/dfs/block/read/" + hash;
+        ResponseEntity<byte[]> readResponse = restTemplate.exchange(readUrl, HttpMethod.GET, null, byte[].class);
+        assertArrayEquals(block, readResponse.getBody());
+
+        // Content that does not match the hash is rejected
+        HttpClientErrorException e = assertThrows(HttpClientErrorException.class, () -> restTemplate.exchange(
+                storeUrl, HttpMethod.POST, new HttpEntity<>("Tampered block data".getBytes(StandardCharsets.UTF_8), headers), String.class));
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+    }
+
+    @Test
+    public void testStoreBlocksBatch() {
+        byte[] first = "First batched block".getBytes(StandardCharsets.UTF_8);
+        byte[] second = "Second batched block".getBytes(StandardCharsets.UTF_8);
+        BlockFramesResource frames = new BlockFramesResource();
+        frames.add(HashUtil.calculateBlockHash(first), first, first.length);
+        // Sent under the wrong hash
+        frames.add(HashUtil.calculateBlockHash(first), second, second.length);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        String storeUrl = "http://localhost:" + port + "/dfs/block/store-batch";
+        ResponseEntity<List<ResponseStoreBlock>> response = restTemplate.exchange(
+                storeUrl, HttpMethod.POST, new HttpEntity<>(frames, headers),
+                new ParameterizedTypeReference<List<ResponseStoreBlock>>() {});
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(2, response.getBody().size());
+        assertEquals(ResponseStoreBlock.Status.STORED, response.getBody().get(0).getStatus());
+        assertEquals(ResponseStoreBlock.Status.HASH_MISMATCH, response.getBody().get(1).getStatus());
+    }
+
+    @Test
+    public void testReadBlocksBatch() throws Exception {
+        byte[] stored = "Block for batch read".getBytes(StandardCharsets.UTF_8);
+        BlockHash storedHash = HashUtil.calculateBlockHash(stored);
+        BlockHash missingHash = HashUtil.calculateBlockHash("Never stored".getBytes(StandardCharsets.UTF_8));
+        HttpHeaders storeHeaders = new HttpHeaders();
+        storeHeaders.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        restTemplate.exchange("http://localhost:" + port + "/dfs/block/store/" + storedHash.toHex(),
+                HttpMethod.POST, new HttpEntity<>(stored, storeHeaders), String.class);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        String readUrl = "http://localhost:" + port + "/dfs/block/read-batch";
+        ResponseEntity<byte[]> response = restTemplate.exchange(readUrl, HttpMethod.POST,
+                new HttpEntity<>(List.of(missingHash.toHex(), storedHash.toHex()), headers), byte[].class);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(response.getBody()));
+        BlockFrames.Frame missing = BlockFrames.read(in, Integer.MAX_VALUE);
+        assertEquals(missingHash, missing.getHash());
+        assertTrue(missing.isMissing());
+        BlockFrames.Frame found = BlockFrames.read(in, Integer.MAX_VALUE);
+        assertEquals(storedHash, found.getHash());
+        assertArrayEquals(stored, found.getData());
+        assertNull(BlockFrames.read(in, Integer.MAX_VALUE));
+    }
 }
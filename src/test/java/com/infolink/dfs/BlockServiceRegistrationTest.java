@@ -0,0 +1,121 @@
+package com.infolink.dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import com.infolink.dfs.bfs.BlockStorage;
+import com.infolink.dfs.shared.BlockFrames;
+import com.infolink.dfs.shared.BlockHash;
+import com.infolink.dfs.shared.HashUtil;
+
+// Registration of a stored batch's block locations with a stub metanode
+public class BlockServiceRegistrationTest {
+    private static final String LOCAL_URL = "http://dfs-node-1:8081";
+    private static final String META_NODE_URL = "http://stub-metanode:8080";
+
+    private BlockService blockService;
+    private MockRestServiceServer metaNode;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        RestTemplate restTemplate = new RestTemplate();
+        metaNode = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+
+        Config config = Mockito.mock(Config.class);
+        Mockito.when(config.getContainerUrl()).thenReturn(LOCAL_URL);
+        Mockito.when(config.getMetaNodeUrl()).thenReturn(META_NODE_URL);
+        Mockito.when(config.getMaxBlockSize()).thenReturn(1 << 20);
+        BlockStorage blockStorage = Mockito.mock(BlockStorage.class);
+        Mockito.when(blockStorage.saveBlockDeferred(ArgumentMatchers.any(BlockHash.class), ArgumentMatchers.any(byte[].class),
+            ArgumentMatchers.anyInt(), ArgumentMatchers.anyBoolean())).thenReturn(1L);
+
+        blockService = new BlockService();
+        ReflectionTestUtils.setField(blockService, "restTemplate", restTemplate);
+        ReflectionTestUtils.setField(blockService, "config", config);
+        ReflectionTestUtils.setField(blockService, "blockStorage", blockStorage);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        blockService.preDestroy();
+    }
+
+    private static List<String> hashes(List<byte[]> blocks) {
+        List<String> hashes = new ArrayList<>();
+        for (byte[] block : blocks) {
+            hashes.add(HashUtil.calculateBlockHash(block).toHex());
+        }
+        return hashes;
+    }
+
+    private static ByteArrayInputStream frames(List<byte[]> blocks) throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        for (byte[] block : blocks) {
+            BlockFrames.write(out, HashUtil.calculateBlockHash(block), block, 0, block.length);
+        }
+        return new ByteArrayInputStream(body.toByteArray());
+    }
+
+    // Waits for the per-block registrations queued on the registration thread
+    private void awaitRegistrations() throws Exception {
+        ExecutorService executor = (ExecutorService) ReflectionTestUtils.getField(blockService, "registrationExecutor");
+        executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testBatchIsRegisteredInOneRequest() throws Exception {
+        List<byte[]> blocks = List.of("block-1".getBytes(), "block-2".getBytes(), "block-3".getBytes());
+        metaNode.expect(ExpectedCount.once(), requestTo(META_NODE_URL + "/metadata/block/register-block-locations"))
+            .andExpect(method(HttpMethod.POST))
+            .andExpect(jsonPath("$.hashes").value(hashes(blocks)))
+            .andExpect(jsonPath("$.nodeUrl").value(LOCAL_URL))
+            .andRespond(withSuccess("registered", MediaType.TEXT_PLAIN));
+
+        List<ResponseStoreBlock> results = blockService.storeBlocks(frames(blocks));
+        assertEquals(3, results.size());
+        results.forEach(result -> assertEquals(ResponseStoreBlock.Status.STORED, result.getStatus()));
+        awaitRegistrations();
+        metaNode.verify();
+    }
+
+    @Test
+    public void testMetanodeWithoutBatchEndpointIsAskedPerBlock() throws Exception {
+        List<byte[]> blocks = List.of("block-1".getBytes(), "block-2".getBytes());
+        metaNode.expect(ExpectedCount.once(), requestTo(META_NODE_URL + "/metadata/block/register-block-locations"))
+            .andRespond(withStatus(HttpStatus.NOT_FOUND));
+        metaNode.expect(ExpectedCount.times(4), requestTo(META_NODE_URL + "/metadata/block/register-block-location"))
+            .andExpect(method(HttpMethod.POST))
+            .andExpect(jsonPath("$.nodeUrl").value(LOCAL_URL))
+            .andRespond(withSuccess("registered", MediaType.TEXT_PLAIN));
+
+        blockService.storeBlocks(frames(blocks));
+
+        // The batch endpoint is not tried again once it is known to be missing
+        blockService.storeBlocks(frames(blocks));
+        awaitRegistrations();
+        metaNode.verify();
+    }
+}
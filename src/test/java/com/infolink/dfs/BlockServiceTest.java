@@ -17,6 +17,7 @@ import com.infolink.dfs.bfs.BlockStorage;
 import com.infolink.dfs.shared.DfsNode;
 import com.infolink.dfs.shared.HashUtil;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -211,4 +212,14 @@ public class BlockServiceTest {
         assertArrayEquals(testBlock, retrievedBlock, "Retrieved block data should match the original data");
     }
 
+
+    @Test
+    public void testStoreBlockStreamRejectsMismatchedContent() {
+        byte[] block = "streamed block".getBytes();
+        String otherHash = HashUtil.calculateBlockHash("another block".getBytes()).toHex();
+
+        assertThrows(IllegalArgumentException.class,
+            () -> blockService.storeBlockLocally(otherHash, new ByteArrayInputStream(block), block.length));
+        assertFalse(blockStorage.containsBlock(otherHash));
+    }
 }
@@ -0,0 +1,79 @@
+package com.infolink.dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import com.infolink.dfs.metanode.ResponseNodesForBlock;
+
+// Exercises the batched placement client against a stub metanode
+public class DedupeFileServicePlacementTest {
+    private static final String META_NODE_URL = "http://stub-metanode:8080";
+
+    private DedupeFileService fileService;
+    private MockRestServiceServer metaNode;
+
+    @BeforeEach
+    public void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        metaNode = MockRestServiceServer.bindTo(restTemplate).build();
+
+        Config config = Mockito.mock(Config.class);
+        Mockito.when(config.getContainerUrl()).thenReturn("http://dfs-node-1:8081");
+
+        fileService = new DedupeFileService();
+        ReflectionTestUtils.setField(fileService, "restTemplate", restTemplate);
+        ReflectionTestUtils.setField(fileService, "config", config);
+        ReflectionTestUtils.setField(fileService, "metaNodeUrl", META_NODE_URL);
+    }
+
+    @Test
+    public void testOneRequestForManyHashes() {
+        metaNode.expect(requestTo(META_NODE_URL + "/metadata/block/nodes-for-blocks"))
+            .andExpect(method(HttpMethod.POST))
+            .andExpect(jsonPath("$.hashes.length()").value(3))
+            .andExpect(jsonPath("$.nodeUrl").value("http://dfs-node-1:8081"))
+            .andRespond(withSuccess("""
+                [
+                  {"status": "SUCCESS", "nodes": [{"containerUrl": "http://dfs-node-2:8081"}]},
+                  {"status": "ALREADY_ENOUGH_COPIES", "nodes": []},
+                  {"status": "NO_NODES_AVAILABLE", "nodes": []}
+                ]""", MediaType.APPLICATION_JSON));
+
+        List<ResponseNodesForBlock> placements = fileService.getNodesForBlocks(List.of("aa", "bb", "cc"));
+
+        metaNode.verify();
+        assertEquals(3, placements.size());
+        assertEquals("http://dfs-node-2:8081", placements.get(0).getNodes().get(0).getContainerUrl());
+        assertEquals(ResponseNodesForBlock.Status.ALREADY_ENOUGH_COPIES, placements.get(1).getStatus());
+        assertEquals(ResponseNodesForBlock.Status.NO_NODES_AVAILABLE, placements.get(2).getStatus());
+    }
+
+    @Test
+    public void testFallsBackToSingleRequests() {
+        metaNode.expect(requestTo(META_NODE_URL + "/metadata/block/nodes-for-blocks"))
+            .andRespond(withResourceNotFound());
+        for (int i = 0; i < 2; i++) {
+            metaNode.expect(requestTo(META_NODE_URL + "/metadata/block/nodes-for-block"))
+                .andRespond(withSuccess("{\"status\": \"SUCCESS\", \"nodes\": []}", MediaType.APPLICATION_JSON));
+        }
+        // The batch endpoint is not tried again once it is known to be missing
+        metaNode.expect(requestTo(META_NODE_URL + "/metadata/block/nodes-for-block"))
+            .andRespond(withSuccess("{\"status\": \"SUCCESS\", \"nodes\": []}", MediaType.APPLICATION_JSON));
+
+        assertEquals(2, fileService.getNodesForBlocks(List.of("aa", "bb")).size());
+        assertEquals(1, fileService.getNodesForBlocks(List.of("cc")).size());
+        metaNode.verify();
+    }
+}
@@ -0,0 +1,473 @@
+package com.infolink.dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.infolink.dfs.metanode.ResponseNodesForBlock;
+import com.infolink.dfs.shared.BlockFrames;
+import com.infolink.dfs.shared.BlockHash;
+import com.infolink.dfs.shared.BlockNode;
+import com.infolink.dfs.shared.DfsFile;
+import com.infolink.dfs.shared.DfsNode;
+import com.infolink.dfs.shared.HashUtil;
+
+// Replica fan-out and batched reads against stubbed peer nodes
+public class DedupeFileServiceReplicaTest {
+    private static final String LOCAL_URL = "http://dfs-node-1:8081";
+    private static final String META_NODE_URL = "http://metanode:8080";
+
+    private DedupeFileService fileService;
+    private MockRestServiceServer peers;
+    private BlockService blockService;
+
+    @BeforeEach
+    public void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        peers = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+
+        Config config = Mockito.mock(Config.class);
+        Mockito.when(config.getContainerUrl()).thenReturn(LOCAL_URL);
+        Mockito.when(config.isRunningInDocker()).thenReturn(true);
+        Mockito.when(config.getMetaNodeUrl()).thenReturn(META_NODE_URL);
+        blockService = Mockito.mock(BlockService.class);
+
+        fileService = new DedupeFileService();
+        ReflectionTestUtils.setField(fileService, "restTemplate", restTemplate);
+        ReflectionTestUtils.setField(fileService, "config", config);
+        ReflectionTestUtils.setField(fileService, "blockService", blockService);
+        ReflectionTestUtils.setField(fileService, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(fileService, "replicaThreads", 4);
+        ReflectionTestUtils.setField(fileService, "downloadThreads", 4);
+        ReflectionTestUtils.setField(fileService, "nodeAddressTtl", 60000L);
+        ReflectionTestUtils.setField(fileService, "metadataCacheSize", 100);
+        ReflectionTestUtils.setField(fileService, "fileMetadataTtl", 60000L);
+        ReflectionTestUtils.setField(fileService, "blockNodesTtl", 60000L);
+        ReflectionTestUtils.setField(fileService, "readThreads", 4);
+        ReflectionTestUtils.setField(fileService, "hedgeReads", true);
+        ReflectionTestUtils.setField(fileService, "hedgeMinDelay", 20L);
+        fileService.postConstruction();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        fileService.preDestroy();
+    }
+
+    private static DfsNode node(String containerUrl) {
+        DfsNode node = new DfsNode();
+        node.setContainerUrl(containerUrl);
+        return node;
+    }
+
+    // Ship one placed block the way an upload batch does and wait until it counts as stored
+    private boolean ship(List<DfsNode> nodes, BlockHash hash, byte[] buffer, int length, Runnable onBlockReleased) throws Exception {
+        CompletableFuture<Boolean> stored = new CompletableFuture<>();
+        fileService.shipBatch(List.of(hash), List.of(buffer), List.of(length),
+            List.of(new ResponseNodesForBlock(ResponseNodesForBlock.Status.SUCCESS, nodes)), List.of(stored), List.of(onBlockReleased));
+        return stored.get(5, TimeUnit.SECONDS);
+    }
+
+    private static String storeResult(BlockHash hash, String status) {
+        return "[{\"hash\": \"" + hash.toHex() + "\", \"status\": \"" + status + "\"}]";
+    }
+
+    @Test
+    public void testQuorumReachedDespiteOneFailure() throws Exception {
+        ReflectionTestUtils.setField(fileService, "writeQuorum", 2);
+        byte[] block = "replicated block".getBytes();
+        BlockHash hash = HashUtil.calculateBlockHash(block);
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-2:8081/dfs/block/store-batch"))
+            .andExpect(method(HttpMethod.POST))
+            .andExpect(content().contentType(MediaType.APPLICATION_OCTET_STREAM))
+            .andExpect(header("Content-Length", String.valueOf(BlockFrames.HEADER_SIZE + block.length)))
+            .andRespond(withSuccess(storeResult(hash, "STORED"), MediaType.APPLICATION_JSON));
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-3:8081/dfs/block/store-batch"))
+            .andRespond(withServerError());
+
+        List<DfsNode> nodes = List.of(node(LOCAL_URL), node("http://dfs-node-2:8081"), node("http://dfs-node-3:8081"));
+
+        assertTrue(ship(nodes, hash, block, block.length, () -> {}));
+        Mockito.verify(blockService, Mockito.timeout(1000)).storeBlockLocally(hash, block, block.length, false);
+    }
+
+    @Test
+    public void testQuorumMissed() throws Exception {
+        ReflectionTestUtils.setField(fileService, "writeQuorum", 2);
+        byte[] block = "under-replicated block".getBytes();
+        BlockHash hash = HashUtil.calculateBlockHash(block);
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-2:8081/dfs/block/store-batch"))
+            .andRespond(withSuccess(storeResult(hash, "STORED"), MediaType.APPLICATION_JSON));
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-3:8081/dfs/block/store-batch"))
+            .andRespond(withSuccess(storeResult(hash, "FAILED"), MediaType.APPLICATION_JSON));
+
+        List<DfsNode> nodes = List.of(node("http://dfs-node-2:8081"), node("http://dfs-node-3:8081"));
+
+        assertFalse(ship(nodes, hash, block, block.length, () -> {}));
+        peers.verify();
+    }
+
+    @Test
+    public void testJsonFallbackAndBufferRelease() throws Exception {
+        // Only part of the buffer is block data
+        byte[] buffer = new byte[64];
+        byte[] block = "pooled block".getBytes();
+        System.arraycopy(block, 0, buffer, 0, block.length);
+        BlockHash hash = HashUtil.calculateBlockHash(block);
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-2:8081/dfs/block/store-batch"))
+            .andRespond(withStatus(HttpStatus.NOT_FOUND));
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-2:8081/dfs/block/store/" + hash.toHex()))
+            .andExpect(content().bytes(block))
+            .andRespond(withStatus(HttpStatus.NOT_FOUND));
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-2:8081/dfs/block/store"))
+            .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+            .andExpect(jsonPath("$.hash").value(hash.toHex()))
+            .andExpect(jsonPath("$.block").value(Base64.getEncoder().encodeToString(block)))
+            .andRespond(withStatus(HttpStatus.CREATED));
+
+        CountDownLatch released = new CountDownLatch(1);
+        List<DfsNode> nodes = List.of(node("http://dfs-node-2:8081"));
+        assertTrue(ship(nodes, hash, buffer, block.length, released::countDown));
+        assertTrue(released.await(1, TimeUnit.SECONDS));
+        peers.verify();
+    }
+
+    @Test
+    public void testBatchStoreOnOneNode() {
+        byte[] first = "first batched block".getBytes();
+        byte[] second = "second batched block".getBytes();
+        BlockHash firstHash = HashUtil.calculateBlockHash(first);
+        BlockHash secondHash = HashUtil.calculateBlockHash(second);
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-2:8081/dfs/block/store-batch"))
+            .andExpect(content().contentType(MediaType.APPLICATION_OCTET_STREAM))
+            .andExpect(header("Content-Length", String.valueOf(2 * BlockFrames.HEADER_SIZE + first.length + second.length)))
+            .andRespond(withSuccess("[{\"hash\": \"" + firstHash.toHex() + "\", \"status\": \"STORED\"},"
+                + " {\"hash\": \"" + secondHash.toHex() + "\", \"status\": \"FAILED\"}]", MediaType.APPLICATION_JSON));
+
+        List<Boolean> stored = fileService.storeBlocksOnNode(node("http://dfs-node-2:8081"),
+            List.of(firstHash, secondHash), List.of(first, second), List.of(first.length, second.length));
+
+        assertEquals(List.of(true, false), stored);
+        peers.verify();
+    }
+
+    @Test
+    public void testBatchStoreFallsBackToSingleBlocks() {
+        byte[] first = "first block".getBytes();
+        byte[] second = "second block".getBytes();
+        BlockHash firstHash = HashUtil.calculateBlockHash(first);
+        BlockHash secondHash = HashUtil.calculateBlockHash(second);
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-2:8081/dfs/block/store-batch"))
+            .andRespond(withStatus(HttpStatus.NOT_FOUND));
+        peers.expect(ExpectedCount.twice(), requestTo("http://dfs-node-2:8081/dfs/block/store/" + firstHash.toHex()))
+            .andRespond(withStatus(HttpStatus.CREATED));
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-2:8081/dfs/block/store/" + secondHash.toHex()))
+            .andRespond(withStatus(HttpStatus.CREATED));
+
+        DfsNode peer = node("http://dfs-node-2:8081");
+        assertEquals(List.of(true, true), fileService.storeBlocksOnNode(peer,
+            List.of(firstHash, secondHash), List.of(first, second), List.of(first.length, second.length)));
+        // The batch endpoint is not tried again once it is known to be missing
+        assertEquals(List.of(true), fileService.storeBlocksOnNode(peer,
+            List.of(firstHash), List.of(first), List.of(first.length)));
+        peers.verify();
+    }
+
+    private static BlockNode blockNode(String hash, String... nodeUrls) {
+        BlockNode blockNode = new BlockNode();
+        blockNode.setHash(hash);
+        blockNode.setNodeUrls(Set.of(nodeUrls));
+        return blockNode;
+    }
+
+    @Test
+    public void testBatchReadWithMissingBlock() throws Exception {
+        byte[] first = "first read block".getBytes();
+        BlockHash firstHash = HashUtil.calculateBlockHash(first);
+        BlockHash missingHash = HashUtil.calculateBlockHash("missing block".getBytes());
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(frames);
+        BlockFrames.write(out, firstHash, first, 0, first.length);
+        BlockFrames.writeMissing(out, missingHash);
+        out.flush();
+
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-2:8081/dfs/block/read-batch"))
+            .andExpect(method(HttpMethod.POST))
+            .andExpect(jsonPath("$[0]").value(firstHash.toHex()))
+            .andExpect(jsonPath("$[1]").value(missingHash.toHex()))
+            .andRespond(withSuccess(frames.toByteArray(), MediaType.APPLICATION_OCTET_STREAM));
+
+        List<byte[]> blocks = fileService.readBlocksFromRemoteNode(
+            List.of(firstHash.toHex(), missingHash.toHex()), "http://dfs-node-2:8081");
+
+        assertEquals(2, blocks.size());
+        assertArrayEquals(first, blocks.get(0));
+        assertNull(blocks.get(1));
+        peers.verify();
+    }
+
+    @Test
+    public void testReadBlocksFallsBackToSingleReads() throws Exception {
+        byte[] local = "local block".getBytes();
+        byte[] remote = "remote block".getBytes();
+        String localHash = HashUtil.calculateBlockHash(local).toHex();
+        String remoteHash = HashUtil.calculateBlockHash(remote).toHex();
+        Mockito.when(blockService.readBlockUncached(localHash)).thenReturn(local);
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-2:8081/dfs/block/read-batch"))
+            .andRespond(withStatus(HttpStatus.NOT_FOUND));
+        peers.expect(ExpectedCount.twice(), requestTo("http://dfs-node-2:8081/dfs/block/read/" + remoteHash))
+            .andExpect(method(HttpMethod.GET))
+            .andRespond(withSuccess(remote, MediaType.APPLICATION_OCTET_STREAM));
+
+        List<BlockNode> run = List.of(blockNode(localHash, LOCAL_URL, "http://dfs-node-2:8081"),
+            blockNode(remoteHash, "http://dfs-node-2:8081"));
+        List<byte[]> blocks = fileService.readBlocks(run);
+        assertArrayEquals(local, blocks.get(0));
+        assertArrayEquals(remote, blocks.get(1));
+
+        // The batch endpoint is not tried again once it is known to be missing
+        assertArrayEquals(remote, fileService.readBlocks(List.of(run.get(1))).get(0));
+        peers.verify();
+    }
+
+    @Test
+    public void testSlowReplicaReadIsHedged() throws Exception {
+        byte[] block = "hedged block".getBytes();
+        String hash = HashUtil.calculateBlockHash(block).toHex();
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-2:8081/dfs/block/read/" + hash))
+            .andRespond(request -> {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return withSuccess(block, MediaType.APPLICATION_OCTET_STREAM).createResponse(request);
+            });
+        peers.expect(ExpectedCount.once(), requestTo("http://dfs-node-3:8081/dfs/block/read/" + hash))
+            .andRespond(withSuccess(block, MediaType.APPLICATION_OCTET_STREAM));
+
+        // node-3 has been slow before, so node-2 is tried first, stalls, and gets hedged
+        ReplicaSelector replicaSelector = (ReplicaSelector) ReflectionTestUtils.getField(fileService, "replicaSelector");
+        replicaSelector.end("http://dfs-node-3:8081", replicaSelector.begin("http://dfs-node-3:8081") - TimeUnit.MILLISECONDS.toNanos(5), true, 1);
+
+        long start = System.nanoTime();
+        assertArrayEquals(block, fileService.readABlock(blockNode(hash, "http://dfs-node-2:8081", "http://dfs-node-3:8081")));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void testStreamBlocksKeepsOrderWhilePrefetching() throws Exception {
+        ReflectionTestUtils.setField(fileService, "readBatchSize", 1);
+        ReflectionTestUtils.setField(fileService, "prefetchBytes", 64L);
+        List<BlockNode> blockNodes = new ArrayList<>();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        CountDownLatch lastRead = new CountDownLatch(1);
+        for (int i = 0; i < 4; i++) {
+            byte[] block = ("block-" + i + "-").getBytes();
+            String hash = HashUtil.calculateBlockHash(block).toHex();
+            blockNodes.add(blockNode(hash, LOCAL_URL));
+            expected.write(block);
+            if (i == 0) {
+                // The first block only arrives once the last one has been fetched
+                Mockito.when(blockService.readBlockUncached(hash)).thenAnswer(invocation -> {
+                    assertTrue(lastRead.await(5, TimeUnit.SECONDS));
+                    return block;
+                });
+            } else if (i == 3) {
+                Mockito.when(blockService.readBlockUncached(hash)).thenAnswer(invocation -> {
+                    lastRead.countDown();
+                    return block;
+                });
+            } else {
+                Mockito.when(blockService.readBlockUncached(hash)).thenReturn(block);
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fileService.streamBlocks("file", blockNodes, 32, out);
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
+    // Stub the metanode for a file whose blocks are all on this node; returns the file content
+    private byte[] stubLocalFile(String fileHash, List<String> blocks, boolean withSizes) throws Exception {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        List<BlockNode> blockNodes = new ArrayList<>();
+        List<String> hashes = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        for (String text : blocks) {
+            byte[] block = text.getBytes();
+            String hash = HashUtil.calculateBlockHash(block).toHex();
+            Mockito.when(blockService.readBlock(hash)).thenReturn(block);
+            Mockito.when(blockService.readBlockUncached(hash)).thenReturn(block);
+            blockNodes.add(blockNode(hash, LOCAL_URL));
+            hashes.add(hash);
+            sizes.add(block.length);
+            content.write(block);
+        }
+        DfsFile dfsFile = new DfsFile(fileHash, "user", "file.bin", "/file.bin", content.size(), false, null, hashes);
+        dfsFile.setBlockSizes(withSizes ? sizes : null);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        peers.expect(ExpectedCount.once(), requestTo(META_NODE_URL + "/metadata/file/block-nodes"))
+            .andRespond(withSuccess(objectMapper.writeValueAsString(blockNodes), MediaType.APPLICATION_JSON));
+        peers.expect(ExpectedCount.once(), requestTo(META_NODE_URL + "/metadata/file/" + fileHash))
+            .andRespond(withSuccess(objectMapper.writeValueAsString(dfsFile), MediaType.APPLICATION_JSON));
+        return content.toByteArray();
+    }
+
+    @Test
+    public void testRangeDownloadReadsOnlyOverlappingBlocks() throws Exception {
+        byte[] content = stubLocalFile("ranged", List.of("aaaa", "bbbbbb", "cc", "dddddddd"), true);
+
+        DownloadResponse response = fileService.downloadFile("ranged", HttpRange.createByteRange(6, 12));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+
+        assertTrue(response.isPartial());
+        assertEquals("bytes 6-12/20", response.getContentRange());
+        assertArrayEquals(Arrays.copyOfRange(content, 6, 13), out.toByteArray());
+        String skipped = HashUtil.calculateBlockHash("aaaa".getBytes()).toHex();
+        Mockito.verify(blockService, Mockito.never()).readBlock(skipped);
+        Mockito.verify(blockService, Mockito.never()).readBlockUncached(skipped);
+    }
+
+    @Test
+    public void testRangeDownloadWithoutBlockSizes() throws Exception {
+        byte[] content = stubLocalFile("unsized", List.of("aaaa", "bbbbbb", "cc"), false);
+
+        DownloadResponse response = fileService.downloadFile("unsized", HttpRange.createSuffixRange(5));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+
+        assertEquals(7, response.getRangeStart());
+        assertArrayEquals(Arrays.copyOfRange(content, 7, 12), out.toByteArray());
+        assertTrue(fileService.downloadFile("unsized", HttpRange.createByteRange(12)).isUnsatisfiable());
+    }
+
+    @Test
+    public void testDownloadByPathKeepsItsOwnName() throws Exception {
+        byte[] content = stubLocalFile("shared", List.of("same-1", "same-2"), true);
+
+        // A second upload of the same content under another name and owner
+        List<String> hashes = List.of(HashUtil.calculateBlockHash("same-1".getBytes()).toHex(),
+            HashUtil.calculateBlockHash("same-2".getBytes()).toHex());
+        DfsFile copy = new DfsFile("shared", "bob", "copy.bin", "/home/bob/copy.bin", content.length, false, null, hashes);
+        copy.setBlockSizes(List.of(6, 6));
+        peers.expect(ExpectedCount.once(), requestTo(META_NODE_URL + "/metadata/file/get-by-filepath"))
+            .andExpect(jsonPath("$.username").value("bob"))
+            .andRespond(withSuccess(new ObjectMapper().writeValueAsString(copy), MediaType.APPLICATION_JSON));
+
+        // The record by hash is the first upload's and is cached first
+        assertEquals("file.bin", fileService.downloadFile("shared").getFilename());
+
+        DfsFile byPath = fileService.getDfsFileByPath("bob", "/home/bob/copy.bin");
+        DownloadResponse response = fileService.downloadFile(byPath, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+
+        assertEquals("copy.bin", response.getFilename());
+        assertArrayEquals(content, out.toByteArray());
+        peers.verify();
+    }
+
+    @Test
+    public void testMissingBlockFailsDownload() throws Exception {
+        stubLocalFile("holed", List.of("aaaa", "bbbbbb", "cc", "dddddddd"), true);
+        String missing = HashUtil.calculateBlockHash("cc".getBytes()).toHex();
+        Mockito.when(blockService.readBlock(missing)).thenThrow(new NoSuchElementException("Block not found"));
+        Mockito.when(blockService.readBlockUncached(missing)).thenThrow(new NoSuchElementException("Block not found"));
+        // The block locations are dropped after the failure and fetched again
+        peers.expect(ExpectedCount.once(), requestTo(META_NODE_URL + "/metadata/file/block-nodes"))
+            .andRespond(withSuccess(new ObjectMapper().writeValueAsString(List.of("aaaa", "bbbbbb", "cc", "dddddddd").stream()
+                .map(text -> blockNode(HashUtil.calculateBlockHash(text.getBytes()).toHex(), LOCAL_URL))
+                .toList()), MediaType.APPLICATION_JSON));
+
+        // The range stops at the missing block instead of closing the other blocks' bytes up
+        DownloadResponse response = fileService.downloadFile("holed", HttpRange.createByteRange(2, 15));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThrows(IOException.class, () -> response.getBody().writeTo(out));
+        assertEquals("aabbbbbb", out.toString());
+
+        // So does the whole file
+        DownloadResponse whole = fileService.downloadFile("holed", null);
+        ByteArrayOutputStream wholeOut = new ByteArrayOutputStream();
+        assertThrows(IOException.class, () -> whole.getBody().writeTo(wholeOut));
+        assertEquals("aaaabbbbbb", wholeOut.toString());
+        peers.verify();
+    }
+
+    @Test
+    public void testRangeDownloadOfCdcFileWithoutBlockSizes() throws Exception {
+        // Content-defined blocks whose total still looks like three fixed-size blocks
+        ReflectionTestUtils.setField(fileService, "BLOCK_SIZE", 8);
+        byte[] content = stubLocalFile("cdc", List.of("ab", "cdefghijklmn", "opqr"), false);
+
+        DownloadResponse response = fileService.downloadFile("cdc", HttpRange.createByteRange(8, 15));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+
+        assertEquals("bytes 8-15/18", response.getContentRange());
+        assertArrayEquals(Arrays.copyOfRange(content, 8, 16), out.toByteArray());
+        assertEquals("ijklmnop", out.toString());
+    }
+
+    @Test
+    public void testLocalUrlLookupIsCachedUntilReadFails() throws Exception {
+        ReflectionTestUtils.setField(fileService, "config", Mockito.mock(Config.class));
+        byte[] block = "block behind a local url".getBytes();
+        String hash = HashUtil.calculateBlockHash(block).toHex();
+        peers.expect(ExpectedCount.twice(), requestTo(META_NODE_URL + "/metadata/get-localurl-for-node"))
+            .andRespond(withSuccess("http://localhost:8082", MediaType.TEXT_PLAIN));
+        peers.expect(ExpectedCount.once(), requestTo("http://localhost:8082/dfs/block/read/" + hash))
+            .andRespond(withException(new ConnectException("Connection refused")));
+        peers.expect(ExpectedCount.twice(), requestTo("http://localhost:8082/dfs/block/read/" + hash))
+            .andRespond(withSuccess(block, MediaType.APPLICATION_OCTET_STREAM));
+
+        // Unreachable at the looked-up address: the next read looks the node up again,
+        // and the one after that reuses the cached address
+        assertNull(fileService.readBlockFromRemoteNode(hash, "http://dfs-node-2:8081"));
+        assertArrayEquals(block, fileService.readBlockFromRemoteNode(hash, "http://dfs-node-2:8081"));
+        assertArrayEquals(block, fileService.readBlockFromRemoteNode(hash, "http://dfs-node-2:8081"));
+        peers.verify();
+    }
+
+    @Test
+    public void testRepeatedDownloadsUseCachedMetadata() throws Exception {
+        byte[] content = stubLocalFile("hot", List.of("hot-1", "hot-2"), true);
+
+        for (int i = 0; i < 3; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            fileService.downloadFile("hot").getBody().writeTo(out);
+            assertArrayEquals(content, out.toByteArray());
+        }
+        peers.verify();
+    }
+}
@@ -0,0 +1,195 @@
+package com.infolink.dfs;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.client.ResponseCreator;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.infolink.dfs.chunk.BufferPool;
+import com.infolink.dfs.shared.BlockHash;
+import com.infolink.dfs.shared.HashUtil;
+
+// Runs whole uploads through the pipeline against a stub metanode
+public class DedupeFileServiceUploadTest {
+    private static final String LOCAL_URL = "http://dfs-node-1:8081";
+    private static final String META_NODE_URL = "http://stub-metanode:8080";
+    private static final int BLOCK_SIZE = 8;
+    private static final int PIPELINE_DEPTH = 2;
+    private static final int BATCH_SIZE = 2;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private DedupeFileService fileService;
+    private MockRestServiceServer metaNode;
+    private BlockService blockService;
+    private final List<String> storedHashes = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    public void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        metaNode = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+
+        Config config = Mockito.mock(Config.class);
+        Mockito.when(config.getContainerUrl()).thenReturn(LOCAL_URL);
+        Mockito.when(config.getMetaNodeUrl()).thenReturn(META_NODE_URL);
+        blockService = Mockito.mock(BlockService.class);
+
+        fileService = new DedupeFileService();
+        ReflectionTestUtils.setField(fileService, "restTemplate", restTemplate);
+        ReflectionTestUtils.setField(fileService, "config", config);
+        ReflectionTestUtils.setField(fileService, "blockService", blockService);
+        ReflectionTestUtils.setField(fileService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(fileService, "BLOCK_SIZE", BLOCK_SIZE);
+        ReflectionTestUtils.setField(fileService, "defaultChunking", "fixed");
+        ReflectionTestUtils.setField(fileService, "cdcMinSize", 4);
+        ReflectionTestUtils.setField(fileService, "cdcAvgSize", 8);
+        ReflectionTestUtils.setField(fileService, "cdcMaxSize", 16);
+        ReflectionTestUtils.setField(fileService, "pipelineDepth", PIPELINE_DEPTH);
+        ReflectionTestUtils.setField(fileService, "placementBatchSize", BATCH_SIZE);
+        ReflectionTestUtils.setField(fileService, "uploadThreads", 1);    // Batches ship in the order they were placed
+        ReflectionTestUtils.setField(fileService, "writeQuorum", 1);
+        ReflectionTestUtils.setField(fileService, "replicaThreads", 1);
+        ReflectionTestUtils.setField(fileService, "readThreads", 1);
+        ReflectionTestUtils.setField(fileService, "downloadThreads", 1);
+        ReflectionTestUtils.setField(fileService, "idleBuffers", 16);
+        ReflectionTestUtils.setField(fileService, "nodeAddressTtl", 60000L);
+        ReflectionTestUtils.setField(fileService, "metadataCacheSize", 100);
+        ReflectionTestUtils.setField(fileService, "fileMetadataTtl", 60000L);
+        ReflectionTestUtils.setField(fileService, "blockNodesTtl", 60000L);
+        fileService.postConstruction();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        fileService.preDestroy();
+    }
+
+    // Seven blocks of BLOCK_SIZE with distinct content, the last one short
+    private static byte[] content() {
+        byte[] content = new byte[6 * BLOCK_SIZE + 3];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i / BLOCK_SIZE);
+        }
+        return content;
+    }
+
+    private static List<String> blockHashes(byte[] content) {
+        List<String> hashes = new ArrayList<>();
+        for (int offset = 0; offset < content.length; offset += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, content.length - offset);
+            hashes.add(HashUtil.calculateBlockHash(content, offset, length).toHex());
+        }
+        return hashes;
+    }
+
+    // Places every block of the request on this node
+    private ResponseCreator placeLocally() {
+        return request -> {
+            Map<?, ?> body = objectMapper.readValue(((MockClientHttpRequest) request).getBodyAsString(), Map.class);
+            List<?> hashes = (List<?>) body.get("hashes");
+            assertTrue(hashes.size() <= BATCH_SIZE);
+            String placement = "{\"status\": \"SUCCESS\", \"nodes\": [{\"containerUrl\": \"" + LOCAL_URL + "\"}]}";
+            String json = "[" + String.join(",", Collections.nCopies(hashes.size(), placement)) + "]";
+            return withSuccess(json, MediaType.APPLICATION_JSON).createResponse(request);
+        };
+    }
+
+    // A batch is sent early when the reader waits for a slot, so seven blocks take
+    // four full batches at best and one request per block at worst
+    private void expectPlacements() {
+        metaNode.expect(ExpectedCount.between(4, 7), requestTo(META_NODE_URL + "/metadata/block/nodes-for-blocks"))
+            .andExpect(method(HttpMethod.POST))
+            .andRespond(placeLocally());
+    }
+
+    // Records the blocks stored locally; slow enough for the reader to run into the in-flight limit
+    private void recordStores(String failingHash) throws Exception {
+        Mockito.doAnswer(invocation -> {
+            BlockHash hash = invocation.getArgument(0);
+            Thread.sleep(5);
+            if (hash.toHex().equals(failingHash)) {
+                throw new IOException("Disk full");
+            }
+            storedHashes.add(hash.toHex());
+            return hash;
+        }).when(blockService).storeBlockLocally(ArgumentMatchers.any(BlockHash.class), ArgumentMatchers.any(byte[].class),
+            ArgumentMatchers.anyInt(), ArgumentMatchers.anyBoolean());
+    }
+
+    // Buffers go back to the pool on the upload thread just after their block counts as stored
+    private BufferPool uploadBuffers() throws Exception {
+        ExecutorService uploadExecutor = (ExecutorService) ReflectionTestUtils.getField(fileService, "uploadExecutor");
+        uploadExecutor.submit(() -> { }).get();
+        Map<?, ?> pools = (Map<?, ?>) ReflectionTestUtils.getField(fileService, "uploadBuffers");
+        return (BufferPool) pools.get(BLOCK_SIZE);
+    }
+
+    @Test
+    public void testBlocksKeepFileOrderAcrossBatches() throws Exception {
+        byte[] content = content();
+        List<String> expectedHashes = blockHashes(content);
+        recordStores(null);
+        expectPlacements();
+        metaNode.expect(requestTo(META_NODE_URL + "/metadata/file/save"))
+            .andExpect(method(HttpMethod.POST))
+            .andExpect(jsonPath("$.dfsFile.blockHashes", contains(expectedHashes.toArray())))
+            .andExpect(jsonPath("$.dfsFile.blockSizes", contains(8, 8, 8, 8, 8, 8, 3)))
+            .andExpect(jsonPath("$.dfsFile.size").value(content.length))
+            .andExpect(jsonPath("$.dfsFile.path").value("/home/alice/blocks.bin"))
+            .andRespond(withSuccess("saved", MediaType.TEXT_PLAIN));
+
+        MockMultipartFile file = new MockMultipartFile("file", "blocks.bin", "application/octet-stream", content);
+        String fileHash = fileService.dedupeSaveFile(file, "alice", "/home/alice");
+
+        metaNode.verify();
+        assertEquals(fileService.calculateFileHash(expectedHashes), fileHash);
+        assertEquals(expectedHashes, storedHashes);
+
+        // Buffers are reused: at most the in-flight blocks, the one being read and one
+        // whose slot was freed just before its buffer went back to the pool
+        BufferPool buffers = uploadBuffers();
+        assertTrue(buffers.getAllocations() <= PIPELINE_DEPTH + 2);
+        assertEquals(buffers.getAllocations(), buffers.getIdleCount());
+    }
+
+    @Test
+    public void testShipFailureFailsUpload() throws Exception {
+        byte[] content = content();
+        List<String> expectedHashes = blockHashes(content);
+        recordStores(expectedHashes.get(3));
+        expectPlacements();
+
+        MockMultipartFile file = new MockMultipartFile("file", "blocks.bin", "application/octet-stream", content);
+        IOException e = assertThrows(IOException.class, () -> fileService.dedupeSaveFile(file, "alice", "/home/alice"));
+        assertTrue(e.getMessage().contains("1 of 7"));
+
+        // No file record with a hole in it reaches the metanode
+        metaNode.verify();
+        assertEquals(6, storedHashes.size());
+        assertFalse(storedHashes.contains(expectedHashes.get(3)));
+        BufferPool buffers = uploadBuffers();
+        assertEquals(buffers.getAllocations(), buffers.getIdleCount());
+    }
+}
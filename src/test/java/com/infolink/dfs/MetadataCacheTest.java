@@ -0,0 +1,47 @@
+package com.infolink.dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class MetadataCacheTest {
+
+    @Test
+    public void testExpiryAndInvalidation() {
+        AtomicLong now = new AtomicLong(0);
+        MetadataCache<String, String> cache = new MetadataCache<>(10, 100, now::get);
+        cache.put("a", "first");
+        cache.put("b", "second");
+
+        now.set(99);
+        assertEquals("first", cache.get("a"));
+        cache.invalidate("b");
+        assertNull(cache.get("b"));
+
+        now.set(100);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        MetadataCache<String, String> cache = new MetadataCache<>(2, 60000);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+
+    @Test
+    public void testZeroTtlDisablesCaching() {
+        MetadataCache<String, String> cache = new MetadataCache<>(10, 0);
+        cache.put("a", "1");
+        assertNull(cache.get("a"));
+    }
+}
@@ -0,0 +1,40 @@
+package com.infolink.dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.infolink.dfs.shared.DfsNode;
+
+public class NodeAddressCacheTest {
+
+    @Test
+    public void testEntriesExpireAfterTtl() {
+        AtomicLong now = new AtomicLong(1000);
+        NodeAddressCache cache = new NodeAddressCache(500, now::get);
+        cache.put("http://dfs-node-2:8081", "http://localhost:8082");
+
+        now.set(1499);
+        assertEquals("http://localhost:8082", cache.get("http://dfs-node-2:8081"));
+        now.set(1500);
+        assertNull(cache.get("http://dfs-node-2:8081"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testFillFromNodeRecordsAndInvalidate() {
+        NodeAddressCache cache = new NodeAddressCache(60000);
+        DfsNode unregistered = new DfsNode();
+        unregistered.setContainerUrl("http://dfs-node-3:8081");
+        cache.putAll(List.of(new DfsNode("http://dfs-node-2:8081", "http://localhost:8082"), unregistered));
+
+        assertEquals("http://localhost:8082", cache.get("http://dfs-node-2:8081"));
+        assertNull(cache.get("http://dfs-node-3:8081"));
+
+        cache.invalidate("http://dfs-node-2:8081");
+        assertNull(cache.get("http://dfs-node-2:8081"));
+    }
+}
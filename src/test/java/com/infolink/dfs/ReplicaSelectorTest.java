@@ -0,0 +1,81 @@
+package com.infolink.dfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class ReplicaSelectorTest {
+    private static final String LOCAL = "http://dfs-node-1:8081";
+    private static final String NODE_2 = "http://dfs-node-2:8081";
+    private static final String NODE_3 = "http://dfs-node-3:8081";
+    private static final String NODE_4 = "http://dfs-node-4:8081";
+
+    // Record a request to the node that took the given time
+    private static void observe(ReplicaSelector selector, String nodeUrl, long millis, boolean success) {
+        selector.end(nodeUrl, selector.begin(nodeUrl) - TimeUnit.MILLISECONDS.toNanos(millis), success, 1);
+    }
+
+    @Test
+    public void testLocalNodeComesFirst() {
+        ReplicaSelector selector = new ReplicaSelector(new Random(1));
+        observe(selector, LOCAL, 500, false);
+
+        List<String> ranked = selector.rank(List.of(NODE_2, LOCAL, NODE_3), LOCAL);
+        assertEquals(3, ranked.size());
+        assertEquals(LOCAL, ranked.get(0));
+        assertFalse(selector.rank(List.of(NODE_2, NODE_3), LOCAL).contains(LOCAL));
+    }
+
+    @Test
+    public void testSlowAndFailingNodesRankLast() {
+        ReplicaSelector selector = new ReplicaSelector(new Random(1));
+        observe(selector, NODE_2, 10, true);
+        observe(selector, NODE_3, 200, true);
+        observe(selector, NODE_4, 10, false);
+        assertEquals(1.0, selector.getErrorRate(NODE_4));
+
+        // Two random picks out of three always include node-2 or both of the others,
+        // so node-3 is never the first choice and stays behind node-2 otherwise
+        for (int i = 0; i < 100; i++) {
+            List<String> ranked = selector.rank(List.of(NODE_2, NODE_3, NODE_4), null);
+            assertNotEquals(NODE_3, ranked.get(0));
+            assertTrue(ranked.indexOf(NODE_2) < ranked.indexOf(NODE_3));
+        }
+
+        // Recovering nodes earn their place back
+        for (int i = 0; i < 30; i++) {
+            observe(selector, NODE_4, 10, true);
+        }
+        assertTrue(selector.getErrorRate(NODE_4) < 0.01);
+    }
+
+    @Test
+    public void testReadsSpreadOverReplicas() {
+        ReplicaSelector selector = new ReplicaSelector(new Random(7));
+
+        // Nothing measured yet: all replicas get tried
+        Map<String, Integer> firstChoices = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            firstChoices.merge(selector.rank(List.of(NODE_2, NODE_3), null).get(0), 1, Integer::sum);
+        }
+        assertTrue(firstChoices.getOrDefault(NODE_2, 0) > 100);
+        assertTrue(firstChoices.getOrDefault(NODE_3, 0) > 100);
+
+        // Similar nodes: the best one does not take every read
+        observe(selector, NODE_2, 10, true);
+        observe(selector, NODE_3, 11, true);
+        observe(selector, NODE_4, 12, true);
+        firstChoices.clear();
+        for (int i = 0; i < 1000; i++) {
+            firstChoices.merge(selector.rank(List.of(NODE_2, NODE_3, NODE_4), null).get(0), 1, Integer::sum);
+        }
+        assertTrue(firstChoices.getOrDefault(NODE_2, 0) > 100);
+        assertTrue(firstChoices.getOrDefault(NODE_3, 0) > 100);
+    }
+}
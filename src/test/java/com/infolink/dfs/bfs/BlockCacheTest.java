@@ -0,0 +1,94 @@
+package com.infolink.dfs.bfs;
+
+import org.junit.jupiter.api.Test;
+
+import com.infolink.dfs.shared.BlockHash;
+import com.infolink.dfs.shared.HashUtil;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockCacheTest {
+
+    private static BlockHash hashOf(byte[] data) {
+        return HashUtil.calculateBlockHash(data);
+    }
+
+    @Test
+    public void testGetReturnsCopyOfCachedData() {
+        BlockCache cache = new BlockCache(16 * 64 * 1024);
+        byte[] data = "cached block".getBytes();
+        BlockHash hash = hashOf(data);
+
+        assertNull(cache.get(hash));
+        cache.put(hash, data);
+
+        byte[] first = cache.get(hash);
+        assertArrayEquals(data, first);
+        first[0] = 'X';
+        assertArrayEquals(data, cache.get(hash));
+
+        BlockCache.Stats stats = cache.getStats();
+        assertEquals(2, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getEntries());
+    }
+
+    @Test
+    public void testInvalidate() {
+        BlockCache cache = new BlockCache(16 * 64 * 1024);
+        byte[] data = "to be deleted".getBytes();
+        BlockHash hash = hashOf(data);
+
+        cache.put(hash, data);
+        cache.invalidate(hash);
+        assertNull(cache.get(hash));
+        assertEquals(0, cache.getStats().getBytes());
+    }
+
+    @Test
+    public void testEvictsWithinBudget() {
+        // 16 segments of 16 KB; 4 KB blocks, so each segment holds at most 4
+        long budget = 16 * 16 * 1024;
+        BlockCache cache = new BlockCache(budget);
+
+        for (int i = 0; i < 1000; i++) {
+            byte[] data = new byte[4096];
+            data[0] = (byte) i;
+            data[1] = (byte) (i >> 8);
+            cache.put(hashOf(data), data);
+        }
+
+        BlockCache.Stats stats = cache.getStats();
+        assertTrue(stats.getBytes() <= budget);
+        assertTrue(stats.getEntries() <= 64);
+        assertTrue(stats.getEvictions() > 0);
+    }
+
+    @Test
+    public void testSkipsOversizedBlocks() {
+        BlockCache cache = new BlockCache(16 * 4096);
+        byte[] data = new byte[4096];
+        BlockHash hash = hashOf(data);
+
+        cache.put(hash, data);
+        assertNull(cache.get(hash));
+    }
+
+    @Test
+    public void testDisabledCache() {
+        BlockCache cache = new BlockCache(0);
+        byte[] data = "anything".getBytes();
+        BlockHash hash = hashOf(data);
+
+        cache.put(hash, data);
+        assertNull(cache.get(hash));
+    }
+
+    @Test
+    public void testSizeClasses() {
+        assertEquals(1024, BlockCache.sizeClass(1));
+        assertEquals(4096, BlockCache.sizeClass(4096));
+        assertEquals(9216, BlockCache.sizeClass(8196));
+        assertTrue(BlockCache.sizeClass(100_000) < 100_000 * 1.125);
+    }
+}
@@ -0,0 +1,321 @@
+package com.infolink.dfs.bfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.infolink.dfs.Config;
+import com.infolink.dfs.shared.BlockHash;
+
+// Compaction of bucket files and segments, and recovery from interrupted compactions
+public class BlockCompactionTest {
+    private static final String BUCKET_PREFIX = "abcd1234";
+    private static final int RECORD_SIZE = IndexFormat.RECORD_SIZE;
+
+    @TempDir
+    Path tempDir;
+
+    private BlockStorage storage;
+
+    @AfterEach
+    public void tearDown() {
+        if (storage != null) {
+            storage.close();
+        }
+    }
+
+    private BlockStorage open(String engine) {
+        return open(engine, "none");
+    }
+
+    private BlockStorage open(String engine, String syncPolicy) {
+        Config config = Mockito.mock(Config.class);
+        Mockito.when(config.getContainerUrl()).thenReturn("http://dfs-node-1:8081");
+        Mockito.when(config.getIndexMode()).thenReturn("raf");
+        Mockito.when(config.getStorageEngine()).thenReturn(engine);
+        Mockito.when(config.getMaxOpenFiles()).thenReturn(16);
+        Mockito.when(config.getSegmentSize()).thenReturn(256L);   // Two 100-byte blocks per segment
+        Mockito.when(config.getBlockCacheSize()).thenReturn(1L << 20);
+        Mockito.when(config.getSyncPolicy()).thenReturn(syncPolicy);
+        Mockito.when(config.getSyncInterval()).thenReturn(1000L);
+
+        BlockStorage blockStorage = new BlockStorage(Mockito.mock(Encryptor.class), tempDir.toString());
+        ReflectionTestUtils.setField(blockStorage, "config", config);
+        ReflectionTestUtils.setField(blockStorage, "redisTemplate", Mockito.mock(RedisTemplate.class, Mockito.RETURNS_DEEP_STUBS));
+        blockStorage.postConstruct();
+        return blockStorage;
+    }
+
+    private void reopen(String engine) {
+        storage.close();
+        storage = open(engine);
+    }
+
+    // All hashes share their first four bytes, so in bucket mode they share one bucket
+    private static BlockHash hash(int i) {
+        return BlockHash.fromHex(BUCKET_PREFIX + String.format("%056x", i));
+    }
+
+    private static byte[] data(int i, int size) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) i);
+        return data;
+    }
+
+    private BlockSchema indexed(BlockHash hash) {
+        BlockIndex blockIndex = (BlockIndex) ReflectionTestUtils.getField(storage, "blockIndex");
+        return blockIndex.get(hash).getSchema();
+    }
+
+    private Path bucketDataPath() {
+        return Paths.get(storage.getBlockFilePath(hash(0).toHex()));
+    }
+
+    private Path bucketIndexPath() {
+        String dataPath = bucketDataPath().toString();
+        return Paths.get(dataPath.substring(0, dataPath.length() - ".bfs".length()) + ".idx");
+    }
+
+    private Path segmentDir() {
+        return tempDir.resolve("segments");
+    }
+
+    @Test
+    public void testBucketRewriteKeepsLiveBlocksReadable() throws Exception {
+        storage = open("bucket");
+        storage.saveBlock(hash(1), data(1, 100), false);
+        storage.saveBlock(hash(2), data(2, 200), false);
+        storage.saveBlock(hash(3), data(3, 300), false);
+        storage.deleteBlock(hash(2));
+
+        CompactionResult result = storage.compact(new IoThrottle(0), 0.5);
+        assertEquals(1, result.getFilesCompacted());
+        assertEquals(1, result.getBlocksPurged());
+        assertEquals(200 + RECORD_SIZE, result.getBytesReclaimed());
+
+        // The block after the purged one moved up
+        assertEquals(100, indexed(hash(3)).getOffset());
+        assertEquals(400, Files.size(bucketDataPath()));
+        assertArrayEquals(data(1, 100), storage.readBlock(hash(1)));
+        assertArrayEquals(data(3, 300), storage.readBlock(hash(3)));
+        assertThrows(NoSuchElementException.class, () -> storage.readBlock(hash(2)));
+
+        // The rewritten files are what a restart sees
+        reopen("bucket");
+        assertArrayEquals(data(3, 300), storage.readBlock(hash(3)));
+        assertFalse(storage.containsBlock(hash(2)));
+        assertEquals(0, storage.compact(new IoThrottle(0), 0.5).getBytesReclaimed());
+    }
+
+    @Test
+    public void testSegmentEvacuatedAboveMinDeadRatio() throws Exception {
+        storage = open("segment");
+        for (int i = 0; i < 3; i++) {
+            storage.saveBlock(hash(i), data(i, 100), false);
+        }
+        assertEquals(0, indexed(hash(1)).getSegment());
+        assertEquals(1, indexed(hash(2)).getSegment());
+        storage.deleteBlock(hash(0));
+
+        // Half of segment 0 is dead
+        CompactionResult result = storage.compact(new IoThrottle(0), 0.6);
+        assertEquals(0, result.getFilesCompacted());
+        assertEquals(0, result.getBytesReclaimed());
+
+        result = storage.compact(new IoThrottle(0), 0.5);
+        assertEquals(2, result.getFilesCompacted());    // The segment and the segment index
+        assertEquals(1, result.getBlocksPurged());
+        assertEquals(100 + RECORD_SIZE, result.getBytesReclaimed());
+
+        assertFalse(Files.exists(segmentDir().resolve("00000000.seg")));
+        assertEquals(1, indexed(hash(1)).getSegment());
+        assertEquals(100, indexed(hash(1)).getOffset());
+        assertEquals(IndexFormat.position(2), Files.size(segmentDir().resolve("segments.idx")));
+        assertArrayEquals(data(1, 100), storage.readBlock(hash(1)));
+
+        reopen("segment");
+        assertArrayEquals(data(1, 100), storage.readBlock(hash(1)));
+        assertArrayEquals(data(2, 100), storage.readBlock(hash(2)));
+        assertFalse(storage.containsBlock(hash(0)));
+    }
+
+    @Test
+    public void testNewestSegmentIsNotCompactedAfterRestart() throws Exception {
+        storage = open("segment");
+        for (int i = 0; i < 6; i++) {
+            storage.saveBlock(hash(i), data(i, 100), false);
+        }
+        assertEquals(2, indexed(hash(5)).getSegment());
+
+        // After a restart nothing is open, but segment 2 has room and takes the next append
+        reopen("segment");
+        storage.deleteBlock(hash(4));
+
+        // Half dead, but emptying it would copy its blocks back into itself
+        CompactionResult result = storage.compact(new IoThrottle(0), 0.5);
+        assertEquals(0, result.getBlocksPurged());
+        assertTrue(Files.exists(segmentDir().resolve("00000002.seg")));
+        assertEquals(2, indexed(hash(5)).getSegment());
+        assertArrayEquals(data(5, 100), storage.readBlock(hash(5)));
+
+        // Once appends moved on it is sealed and can go
+        storage.saveBlock(hash(6), data(6, 100), false);
+        assertEquals(3, indexed(hash(6)).getSegment());
+        result = storage.compact(new IoThrottle(0), 0.5);
+        assertEquals(1, result.getBlocksPurged());
+        assertFalse(Files.exists(segmentDir().resolve("00000002.seg")));
+        assertEquals(3, indexed(hash(5)).getSegment());
+        for (int i : new int[] {0, 1, 2, 3, 5, 6}) {
+            assertArrayEquals(data(i, 100), storage.readBlock(hash(i)));
+        }
+
+        reopen("segment");
+        for (int i : new int[] {0, 1, 2, 3, 5, 6}) {
+            assertArrayEquals(data(i, 100), storage.readBlock(hash(i)));
+        }
+    }
+
+    @Test
+    public void testBlockRevivedDuringSegmentCompactionSurvives() throws Exception {
+        storage = open("segment");
+        for (int i = 0; i < 3; i++) {
+            storage.saveBlock(hash(i), data(i, 100), false);
+        }
+        storage.deleteBlock(hash(0));
+
+        // An upload stores the dead block again while compaction copies its neighbour
+        IoThrottle reviving = new IoThrottle(0) {
+            private boolean revived;
+
+            @Override
+            public void acquire(long bytes) {
+                if (!revived) {
+                    revived = true;
+                    try {
+                        storage.saveBlock(hash(0), data(0, 100), false);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        };
+
+        CompactionResult result = storage.compact(reviving, 0.5);
+        assertEquals(1, result.getFilesCompacted());
+        assertEquals(0, result.getBlocksPurged());
+        assertEquals(0, result.getBytesReclaimed());   // Both blocks were moved, not dropped
+
+        assertFalse(Files.exists(segmentDir().resolve("00000000.seg")));
+        assertEquals(1, storage.getReferenceCount(hash(0)));
+        assertNotEquals(0, indexed(hash(0)).getSegment());
+        assertArrayEquals(data(0, 100), storage.readBlock(hash(0)));
+
+        reopen("segment");
+        assertArrayEquals(data(0, 100), storage.readBlock(hash(0)));
+        assertArrayEquals(data(1, 100), storage.readBlock(hash(1)));
+    }
+
+    @Test
+    public void testGroupCommitWaitsForCompactionSwap() throws Exception {
+        storage = open("bucket", "batch");
+        long ticket = storage.saveBlockDeferred(hash(1), data(1, 100), 100, false);
+
+        // While compaction holds the write lock, files may be mid-swap; the sync waits for it
+        ReentrantReadWriteLock lock = (ReentrantReadWriteLock) ReflectionTestUtils.getField(storage, "lock");
+        lock.writeLock().lock();
+        CompletableFuture<Void> sync;
+        try {
+            sync = CompletableFuture.runAsync(() -> {
+                try {
+                    storage.awaitDurable(ticket);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            Thread.sleep(200);
+            assertFalse(sync.isDone());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        sync.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testRecoveryCompletesSwappedBucket() throws Exception {
+        storage = open("bucket");
+        storage.saveBlock(hash(1), data(1, 100), false);
+        storage.saveBlock(hash(2), data(2, 200), false);
+        storage.saveBlock(hash(3), data(3, 300), false);
+        storage.deleteBlock(hash(2));
+        Path staleIndex = tempDir.resolve("stale.idx.bak");
+        Files.copy(bucketIndexPath(), staleIndex);
+        assertEquals(200 + RECORD_SIZE, storage.compact(new IoThrottle(0), 0.5).getBytesReclaimed());
+        storage.close();
+
+        // Crash after the data file was swapped but before the index file was
+        Files.move(bucketIndexPath(), BucketDataStore.compactPath(bucketIndexPath()));
+        Files.move(staleIndex, bucketIndexPath());
+
+        storage = open("bucket");
+        assertFalse(Files.exists(BucketDataStore.compactPath(bucketIndexPath())));
+        assertArrayEquals(data(1, 100), storage.readBlock(hash(1)));
+        assertArrayEquals(data(3, 300), storage.readBlock(hash(3)));
+        assertFalse(storage.containsBlock(hash(2)));
+        assertEquals(0, storage.compact(new IoThrottle(0), 0.5).getBytesReclaimed());
+    }
+
+    @Test
+    public void testRecoveryRollsBackUnswappedBucket() throws Exception {
+        storage = open("bucket");
+        storage.saveBlock(hash(1), data(1, 100), false);
+        storage.saveBlock(hash(2), data(2, 200), false);
+        storage.deleteBlock(hash(2));
+        storage.close();
+
+        // Crash while the compacted copies were still being written
+        Files.write(BucketDataStore.compactPath(bucketDataPath()), data(9, 50));
+        Files.copy(bucketIndexPath(), BucketDataStore.compactPath(bucketIndexPath()));
+
+        storage = open("bucket");
+        assertFalse(Files.exists(BucketDataStore.compactPath(bucketDataPath())));
+        assertFalse(Files.exists(BucketDataStore.compactPath(bucketIndexPath())));
+        assertEquals(300, Files.size(bucketDataPath()));
+        assertArrayEquals(data(1, 100), storage.readBlock(hash(1)));
+
+        // The original files were kept, so the dead block is still there to reclaim
+        CompactionResult result = storage.compact(new IoThrottle(0), 0.5);
+        assertEquals(1, result.getBlocksPurged());
+        assertEquals(200 + RECORD_SIZE, result.getBytesReclaimed());
+    }
+
+    @Test
+    public void testRecoveryDropsInterruptedSegmentIndexRewrite() throws Exception {
+        storage = open("segment");
+        storage.saveBlock(hash(1), data(1, 100), false);
+        storage.close();
+
+        Path rewrite = segmentDir().resolve("segments.idx.rewrite");
+        Files.copy(segmentDir().resolve("segments.idx"), rewrite, StandardCopyOption.REPLACE_EXISTING);
+
+        storage = open("segment");
+        assertFalse(Files.exists(rewrite));
+        assertArrayEquals(data(1, 100), storage.readBlock(hash(1)));
+    }
+}
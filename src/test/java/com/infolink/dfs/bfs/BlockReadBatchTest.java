@@ -0,0 +1,131 @@
+package com.infolink.dfs.bfs;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.infolink.dfs.Config;
+import com.infolink.dfs.shared.BlockHash;
+
+// Batch reads: on-disk order within bounded windows, and no cache fill
+public class BlockReadBatchTest {
+    @TempDir
+    Path tempDir;
+
+    private BlockStorage storage;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        Config config = Mockito.mock(Config.class);
+        Mockito.when(config.getContainerUrl()).thenReturn("http://dfs-node-1:8081");
+        Mockito.when(config.getIndexMode()).thenReturn("raf");
+        Mockito.when(config.getStorageEngine()).thenReturn("segment");
+        Mockito.when(config.getMaxOpenFiles()).thenReturn(16);
+        Mockito.when(config.getSegmentSize()).thenReturn(256L);   // Two 100-byte blocks per segment
+        Mockito.when(config.getBlockCacheSize()).thenReturn(1L << 20);
+        Mockito.when(config.getSyncPolicy()).thenReturn("none");
+        Mockito.when(config.getSyncInterval()).thenReturn(1000L);
+
+        storage = new BlockStorage(Mockito.mock(Encryptor.class), tempDir.toString());
+        ReflectionTestUtils.setField(storage, "config", config);
+        ReflectionTestUtils.setField(storage, "redisTemplate", Mockito.mock(RedisTemplate.class, Mockito.RETURNS_DEEP_STUBS));
+        storage.postConstruct();
+
+        // Blocks 1 and 2 share the first segment, 3 and 4 the second, 5 and 6 the third
+        for (int i = 1; i <= 6; i++) {
+            storage.saveBlock(hash(i), data(i), false);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        storage.close();
+    }
+
+    private static BlockHash hash(int i) {
+        return BlockHash.fromHex(String.format("%064x", i));
+    }
+
+    private static byte[] data(int i) {
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte) i);
+        return data;
+    }
+
+    // Newest blocks first, so request order is the reverse of on-disk order
+    private List<BlockHash> request() {
+        List<BlockHash> hashes = new ArrayList<>();
+        for (int i = 6; i >= 1; i--) {
+            hashes.add(hash(i));
+        }
+        return hashes;
+    }
+
+    private List<Integer> visitOrder(List<BlockHash> hashes) throws Exception {
+        List<Integer> visited = new ArrayList<>();
+        storage.readBlocks(hashes, (index, data) -> {
+            if (data != null) {
+                assertArrayEquals(data(6 - index), data);
+            }
+            visited.add(index);
+        });
+        return visited;
+    }
+
+    @Test
+    public void testWindowIsReadInDiskOrder() throws Exception {
+        ReflectionTestUtils.setField(storage, "readWindowBytes", 200L);
+
+        // Each window holds one segment's two blocks, read front to back
+        assertEquals(List.of(1, 0, 3, 2, 5, 4), visitOrder(request()));
+    }
+
+    @Test
+    public void testOversizedBlockTakesAWindowOfItsOwn() throws Exception {
+        ReflectionTestUtils.setField(storage, "readWindowBytes", 50L);
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), visitOrder(request()));
+    }
+
+    @Test
+    public void testMissingBlockComesFirstInItsWindow() throws Exception {
+        ReflectionTestUtils.setField(storage, "readWindowBytes", 200L);
+        List<BlockHash> hashes = request();
+        hashes.add(2, hash(99));
+
+        List<BlockHash> visitedHashes = new ArrayList<>();
+        List<byte[]> visitedData = new ArrayList<>();
+        storage.readBlocks(hashes, (index, data) -> {
+            visitedHashes.add(hashes.get(index));
+            visitedData.add(data);
+        });
+
+        // The missing block takes no room, so it joins the first window and leads it
+        assertEquals(List.of(hash(99), hash(5), hash(6), hash(3), hash(4), hash(1), hash(2)), visitedHashes);
+        assertNull(visitedData.get(0));
+    }
+
+    @Test
+    public void testBatchReadDoesNotFillCache() throws Exception {
+        visitOrder(request());
+        assertEquals(0, storage.getCacheStats().getEntries());
+
+        // A block cached by a single read is still served to the batch
+        storage.readBlock(hash(3));
+        assertEquals(1, storage.getCacheStats().getEntries());
+        visitOrder(request());
+        assertEquals(1, storage.getCacheStats().getEntries());
+        assertTrue(storage.getCacheStats().getHits() >= 1);
+    }
+}
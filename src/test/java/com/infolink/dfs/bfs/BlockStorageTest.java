@@ -13,6 +13,8 @@ import org.springframework.data.redis.core.RedisTemplate;
 import com.infolink.dfs.Config;
 import com.infolink.dfs.bfs.BlockStorage;
 import com.infolink.dfs.bfs.Encryptor;
+import com.infolink.dfs.shared.BlockHash;
+import com.infolink.dfs.shared.HashUtil;
 import com.infolink.dfs.tobedelete.FileController;
 
 import jakarta.annotation.PostConstruct;
@@ -22,8 +24,13 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -60,7 +67,7 @@ class BlockStorageTest {
 
     @Test
     void testStoreBlockWithoutEncryption() throws IOException, NoSuchAlgorithmException {
-        String hash = "abc1234567890abcdef1234567890abc";
+        String hash = "abc1234567890abcdef1234567890abcabc1234567890abcdef1234567890abc";
         byte[] blockData = "Test Data".getBytes();
 
         // Store the block
@@ -76,7 +83,7 @@ class BlockStorageTest {
 
     @Test
     void testStoreBlockWithEncryption() throws IOException, NoSuchAlgorithmException {
-        String hash = "def1234567890abcdef1234567890abc";
+        String hash = "def1234567890abcdef1234567890abcdef1234567890abcdef1234567890abc";
         byte[] blockData = "Test Data".getBytes();
 
         // Mock the encryptor behavior
@@ -98,8 +105,8 @@ class BlockStorageTest {
     @Test
     void testBlockStorageWithReferenceCount() throws IOException, NoSuchAlgorithmException {
         // Define two hashes with the same first 8 characters
-        String hashB1 = "abcdef12000000000000000000000001";
-        String hashB2 = "abcdef12000000000000000000000002";
+        String hashB1 = "abcdef12" + "0".repeat(55) + "1";
+        String hashB2 = "abcdef12" + "0".repeat(55) + "2";
         byte[] dataB1 = "Block B1 Data".getBytes();
         byte[] dataB2 = "Block B2 Data".getBytes();
 
@@ -171,9 +178,9 @@ class BlockStorageTest {
     void testStoreMultipleBlocksInSameFile() throws IOException, NoSuchAlgorithmException {
         // Hashes and data for multiple blocks sharing a common prefix
         String[] hashes = {
-            "abcdef01data1",  // prefix: "abcdef01"
-            "abcdef02data2",  // prefix: "abcdef02"
-            "abcdef03data3"   // prefix: "abcdef03"
+            "abcdef01" + "0".repeat(55) + "1",  // prefix: "abcdef01"
+            "abcdef02" + "0".repeat(55) + "2",  // prefix: "abcdef02"
+            "abcdef03" + "0".repeat(55) + "3"   // prefix: "abcdef03"
         };
 
         byte[][] blockDataArray = {
@@ -199,6 +206,64 @@ class BlockStorageTest {
         }
     }
 
+    @Test
+    void testContainsBlock() throws IOException, NoSuchAlgorithmException {
+        String hash = "abcdef05" + "0".repeat(55) + "5";
+        assertFalse(blockStorage.containsBlock(hash));
+        assertThrows(NoSuchElementException.class, () -> blockStorage.readBlock(hash));
+
+        blockStorage.saveBlock(hash, "Exists".getBytes(), false);
+        assertTrue(blockStorage.containsBlock(hash));
+
+        // Unreferenced blocks wait for compaction and no longer count as stored
+        blockStorage.deleteBlock(hash);
+        assertFalse(blockStorage.containsBlock(hash));
+    }
+
+    @Test
+    void testSaveBlockFromLargerBuffer() throws IOException, NoSuchAlgorithmException {
+        byte[] buffer = new byte[64];
+        byte[] content = "Pooled block".getBytes();
+        System.arraycopy(content, 0, buffer, 0, content.length);
+        BlockHash hash = HashUtil.calculateBlockHash(buffer, 0, content.length);
+
+        // Only the first length bytes belong to the block
+        blockStorage.saveBlock(hash, buffer, content.length, false);
+        assertArrayEquals(content, blockStorage.readBlock(hash));
+    }
+
+    @Test
+    void testConcurrentSavesOfSameBlock() throws Exception {
+        String hash = "abcdef04" + "0".repeat(55) + "4";
+        byte[] blockData = "Shared Block Data".getBytes();
+        int threads = 8;
+        int savesPerThread = 50;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < savesPerThread; i++) {
+                        blockStorage.saveBlock(hash, blockData, false);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Stored once, referenced by every save
+        assertEquals(threads * savesPerThread, blockStorage.getReferenceCount(hash));
+        assertArrayEquals(blockData, blockStorage.readBlock(hash));
+        assertEquals(1L, blockStorage.getBlockCount());
+        assertEquals((long) blockData.length, blockStorage.getBlockTotalSize());
+    }
+
     @AfterEach
     void tearDown() throws IOException {
         // Clean up the temporary directory
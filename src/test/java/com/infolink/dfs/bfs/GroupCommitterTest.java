@@ -0,0 +1,98 @@
+package com.infolink.dfs.bfs;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GroupCommitterTest {
+
+    @Test
+    public void testNonePolicyNeverForces() throws IOException {
+        AtomicInteger forces = new AtomicInteger();
+        GroupCommitter committer = new GroupCommitter(GroupCommitter.Policy.NONE, 0);
+
+        long ticket = committer.markDirty("a.bfs", path -> forces.incrementAndGet());
+        committer.awaitDurable(ticket);
+        committer.close();
+
+        assertEquals(0, forces.get());
+    }
+
+    @Test
+    public void testBatchPolicyForcesBeforeReturning() throws IOException {
+        List<String> forced = new ArrayList<>();
+        GroupCommitter committer = new GroupCommitter(GroupCommitter.Policy.BATCH, 0);
+
+        committer.markDirty("a.bfs", forced::add);
+        long ticket = committer.markDirty("a.idx", forced::add);
+        committer.awaitDurable(ticket);
+
+        assertEquals(List.of("a.bfs", "a.idx"), forced);
+
+        // Nothing new is dirty, so waiting again forces nothing
+        committer.awaitDurable(ticket);
+        assertEquals(2, forced.size());
+    }
+
+    @Test
+    public void testBatchPolicySharesForcesBetweenWriters() throws Exception {
+        AtomicInteger forces = new AtomicInteger();
+        GroupCommitter.Syncer slowSyncer = path -> {
+            forces.incrementAndGet();
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        GroupCommitter committer = new GroupCommitter(GroupCommitter.Policy.BATCH, 0);
+
+        int threads = 8;
+        int writesPerThread = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < writesPerThread; i++) {
+                        committer.awaitDurable(committer.markDirty("shared.idx", slowSyncer));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Every write was acknowledged, with fewer forces than writes
+        assertTrue(forces.get() < threads * writesPerThread, "forces=" + forces.get());
+        assertEquals(forces.get(), committer.getSyncCount());
+    }
+
+    @Test
+    public void testFailedForceIsRetried() throws IOException {
+        AtomicInteger attempts = new AtomicInteger();
+        GroupCommitter committer = new GroupCommitter(GroupCommitter.Policy.BATCH, 0);
+
+        long ticket = committer.markDirty("a.bfs", path -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IOException("disk error");
+            }
+        });
+        assertThrows(IOException.class, () -> committer.awaitDurable(ticket));
+
+        committer.awaitDurable(ticket);
+        assertEquals(2, attempts.get());
+    }
+}
@@ -0,0 +1,217 @@
+package com.infolink.dfs.bfs;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HandleCacheTest {
+
+    private static class FakeHandle implements Closeable {
+        boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private final Map<Path, Integer> opens = new HashMap<>();
+
+    private HandleCache<FakeHandle> newCache(int capacity) {
+        return new HandleCache<>(capacity, path -> {
+            opens.merge(path, 1, Integer::sum);
+            return new FakeHandle();
+        });
+    }
+
+    @Test
+    public void testReusesOpenHandles() throws IOException {
+        HandleCache<FakeHandle> cache = newCache(2);
+        Path path = Paths.get("a.bfs");
+
+        FakeHandle first;
+        try (HandleCache.Handle<FakeHandle> handle = cache.acquire(path)) {
+            first = handle.get();
+        }
+        try (HandleCache.Handle<FakeHandle> handle = cache.acquire(path)) {
+            assertSame(first, handle.get());
+        }
+        assertEquals(1, opens.get(path));
+        assertFalse(first.closed);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        HandleCache<FakeHandle> cache = newCache(2);
+        Path a = Paths.get("a.bfs");
+        Path b = Paths.get("b.bfs");
+        Path c = Paths.get("c.bfs");
+
+        FakeHandle handleA;
+        FakeHandle handleB;
+        try (HandleCache.Handle<FakeHandle> handle = cache.acquire(a)) { handleA = handle.get(); }
+        try (HandleCache.Handle<FakeHandle> handle = cache.acquire(b)) { handleB = handle.get(); }
+        try (HandleCache.Handle<FakeHandle> handle = cache.acquire(a)) { /* touch a */ }
+        try (HandleCache.Handle<FakeHandle> handle = cache.acquire(c)) { /* evicts b */ }
+
+        assertEquals(2, cache.size());
+        assertTrue(handleB.closed);
+        assertFalse(handleA.closed);
+    }
+
+    @Test
+    public void testDoesNotEvictPinnedHandles() throws IOException {
+        HandleCache<FakeHandle> cache = newCache(1);
+        Path a = Paths.get("a.bfs");
+        Path b = Paths.get("b.bfs");
+
+        try (HandleCache.Handle<FakeHandle> pinned = cache.acquire(a)) {
+            try (HandleCache.Handle<FakeHandle> handle = cache.acquire(b)) {
+                assertFalse(pinned.get().closed);
+            }
+            // Still the same handle, so there is never a second open copy of a file
+            try (HandleCache.Handle<FakeHandle> again = cache.acquire(a)) {
+                assertSame(pinned.get(), again.get());
+            }
+        }
+        assertEquals(1, opens.get(a));
+    }
+
+    @Test
+    public void testPinnedHandleClosedOnRelease() throws IOException {
+        HandleCache<FakeHandle> cache = newCache(1);
+        Path path = Paths.get("a.bfs");
+
+        HandleCache.Handle<FakeHandle> pinned = cache.acquire(path);
+        cache.invalidate(path);
+        assertFalse(pinned.get().closed);
+
+        pinned.close();
+        assertTrue(pinned.get().closed);
+
+        // The next acquire opens the file again
+        try (HandleCache.Handle<FakeHandle> handle = cache.acquire(path)) {
+            assertNotSame(pinned.get(), handle.get());
+        }
+        assertEquals(2, opens.get(path));
+    }
+
+    @Test
+    public void testMissesOnDifferentPathsOpenConcurrently() throws Exception {
+        Path a = Paths.get("a.bfs");
+        Path b = Paths.get("b.bfs");
+        CountDownLatch openingA = new CountDownLatch(1);
+        CountDownLatch openedB = new CountDownLatch(1);
+        HandleCache<FakeHandle> cache = new HandleCache<>(4, path -> {
+            if (path.equals(a)) {
+                openingA.countDown();
+                try {
+                    // Only returns if b can be opened while a is still opening
+                    if (!openedB.await(5, TimeUnit.SECONDS)) {
+                        throw new IOException("Open of b waited for the open of a");
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            } else {
+                openedB.countDown();
+            }
+            return new FakeHandle();
+        });
+
+        CompletableFuture<HandleCache.Handle<FakeHandle>> acquireA = CompletableFuture.supplyAsync(() -> {
+            try {
+                return cache.acquire(a);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(openingA.await(5, TimeUnit.SECONDS));
+        cache.acquire(b).close();
+        acquireA.get(5, TimeUnit.SECONDS).close();
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testConcurrentOpenOfSamePathKeepsOneHandle() throws Exception {
+        Path path = Paths.get("a.bfs");
+        List<FakeHandle> created = new ArrayList<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch secondOpened = new CountDownLatch(1);
+        HandleCache<FakeHandle> cache = new HandleCache<>(4, p -> {
+            FakeHandle handle = new FakeHandle();
+            synchronized (created) {
+                created.add(handle);
+            }
+            if (calls.incrementAndGet() == 1) {
+                // The first open is still running when the second one starts
+                try {
+                    secondOpened.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            } else {
+                secondOpened.countDown();
+            }
+            return handle;
+        });
+
+        CompletableFuture<HandleCache.Handle<FakeHandle>> slow = CompletableFuture.supplyAsync(() -> {
+            try {
+                return cache.acquire(path);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (calls.get() == 0) {
+            Thread.onSpinWait();
+        }
+        HandleCache.Handle<FakeHandle> fast = cache.acquire(path);
+        HandleCache.Handle<FakeHandle> late = slow.get(5, TimeUnit.SECONDS);
+
+        // Either open may win; the other copy is closed unused
+        assertSame(fast.get(), late.get());
+        assertEquals(2, created.size());
+        assertFalse(fast.get().closed);
+        assertTrue(created.get(0).closed != created.get(1).closed);
+        fast.close();
+        late.close();
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testInvalidationDuringOpenReopens() throws IOException {
+        Path path = Paths.get("a.bfs");
+        List<FakeHandle> created = new ArrayList<>();
+        HandleCache<?>[] self = new HandleCache<?>[1];
+        HandleCache<FakeHandle> cache = new HandleCache<>(4, p -> {
+            FakeHandle handle = new FakeHandle();
+            created.add(handle);
+            if (created.size() == 1) {
+                // The file is replaced while this copy of the old one is being opened
+                self[0].invalidate(p);
+            }
+            return handle;
+        });
+        self[0] = cache;
+
+        try (HandleCache.Handle<FakeHandle> handle = cache.acquire(path)) {
+            assertEquals(2, created.size());
+            assertTrue(created.get(0).closed);
+            assertSame(created.get(1), handle.get());
+        }
+    }
+}
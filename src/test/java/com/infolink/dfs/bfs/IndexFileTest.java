@@ -0,0 +1,191 @@
+package com.infolink.dfs.bfs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import com.infolink.dfs.shared.HashUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexFileTest {
+
+    @TempDir
+    Path tempDir;
+
+    private BlockSchema schema(int i) {
+        return new BlockSchema(HashUtil.calculateBlockHash(("block" + i).getBytes()), i * 100L, 1, 10 + i, false, 1000L, 2000L);
+    }
+
+    @ParameterizedTest
+    @EnumSource(IndexFile.Mode.class)
+    public void testAppendAndReadBack(IndexFile.Mode mode) throws IOException {
+        String path = tempDir.resolve("bucket.idx").toString();
+
+        try (IndexFile indexFile = IndexFile.open(mode, path)) {
+            for (int i = 0; i < 5; i++) {
+                assertEquals(i, indexFile.append(schema(i)));
+            }
+            // Reading after appends must see records past the previous mapping
+            assertEquals(schema(4).getBlockHash(), indexFile.read(4).getBlockHash());
+        }
+
+        try (IndexFile indexFile = IndexFile.open(mode, path)) {
+            assertEquals(5, indexFile.getRecordCount());
+            List<BlockSchema> schemas = indexFile.readAll();
+            for (int i = 0; i < 5; i++) {
+                BlockSchema expected = schema(i);
+                assertEquals(expected.getBlockHash(), schemas.get(i).getBlockHash());
+                assertEquals(expected.getOffset(), schemas.get(i).getOffset());
+                assertEquals(expected.getSize(), schemas.get(i).getSize());
+                assertEquals(expected.getModifiedTimestamp(), schemas.get(i).getModifiedTimestamp());
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(IndexFile.Mode.class)
+    public void testWriteReferenceCountInPlace(IndexFile.Mode mode) throws IOException {
+        String path = tempDir.resolve("bucket.idx").toString();
+
+        try (IndexFile indexFile = IndexFile.open(mode, path)) {
+            indexFile.append(schema(0));
+            indexFile.append(schema(1));
+            indexFile.writeReferenceCount(1, 7);
+        }
+
+        // Both access modes share one on-disk layout
+        for (IndexFile.Mode readMode : IndexFile.Mode.values()) {
+            try (IndexFile indexFile = IndexFile.open(readMode, path)) {
+                assertEquals(1, indexFile.read(0).getReferenceCount());
+                assertEquals(7, indexFile.read(1).getReferenceCount());
+                assertEquals(schema(1).getBlockHash(), indexFile.read(1).getBlockHash());
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(IndexFile.Mode.class)
+    public void testHeaderWrittenAndChecked(IndexFile.Mode mode) throws IOException {
+        Path path = tempDir.resolve("bucket.idx");
+        try (IndexFile indexFile = IndexFile.open(mode, path.toString())) {
+            indexFile.append(schema(0));
+        }
+        assertEquals(IndexFormat.position(1), Files.size(path));
+
+        // A record size this version does not know is refused, not misread
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+            raf.seek(8);
+            raf.writeInt(IndexFormat.RECORD_SIZE - 4);
+        }
+        assertThrows(IOException.class, () -> IndexFile.open(mode, path.toString()));
+    }
+
+    @Test
+    public void testLegacyIndexIsConverted() throws IOException {
+        // Original layout: 64 hex characters, then the fields without a segment id
+        Path path = tempDir.resolve("legacy.idx");
+        writeLegacy(path, 3, -1);
+        assertEquals(3 * 97, Files.size(path));
+        assertThrows(IOException.class, () -> IndexFile.open(IndexFile.Mode.RAF, path.toString()));
+
+        BlockIndex blockIndex = new BlockIndex();
+        blockIndex.load(tempDir);
+        assertEquals(3, blockIndex.size());
+        for (int i = 0; i < 3; i++) {
+            BlockSchema loaded = blockIndex.get(schema(i).getBlockHash()).getSchema();
+            assertEquals(schema(i).getOffset(), loaded.getOffset());
+            assertEquals(schema(i).getSize(), loaded.getSize());
+            assertEquals(BlockSchema.NO_SEGMENT, loaded.getSegment());
+        }
+        assertFalse(IndexFormat.upgradeLegacy(path));
+    }
+
+    // Write records in the original layout; the record at badRecord gets a hash that is not hex
+    private void writeLegacy(Path path, int records, int badRecord) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            for (int i = 0; i < records; i++) {
+                BlockSchema expected = schema(i);
+                String hash = i == badRecord ? "z".repeat(64) : expected.getHash();
+                out.write(hash.getBytes(StandardCharsets.US_ASCII));
+                out.writeLong(expected.getOffset());
+                out.writeInt(expected.getReferenceCount());
+                out.writeInt(expected.getSize());
+                out.writeBoolean(expected.isEncrypted());
+                out.writeLong(expected.getCreatedTimestamp());
+                out.writeLong(expected.getModifiedTimestamp());
+            }
+        }
+    }
+
+    @Test
+    public void testLegacyIndexIsConvertedInChunks() throws IOException {
+        Path path = tempDir.resolve("legacy.idx");
+        writeLegacy(path, 5000, -1);
+
+        assertTrue(IndexFormat.upgradeLegacy(path));
+        assertEquals(IndexFormat.position(5000), Files.size(path));
+        try (IndexFile indexFile = IndexFile.open(IndexFile.Mode.RAF, path.toString())) {
+            assertEquals(5000, indexFile.getRecordCount());
+            assertEquals(schema(4999).getBlockHash(), indexFile.read(4999).getBlockHash());
+            assertEquals(schema(4096).getOffset(), indexFile.read(4096).getOffset());
+        }
+    }
+
+    @Test
+    public void testLegacyIndexWithBadRecordIsLeftAlone() throws IOException {
+        Path path = tempDir.resolve("legacy.idx");
+        writeLegacy(path, 5000, 4500);
+        byte[] before = Files.readAllBytes(path);
+
+        assertFalse(IndexFormat.upgradeLegacy(path));
+        assertArrayEquals(before, Files.readAllBytes(path));
+        assertFalse(Files.exists(tempDir.resolve("legacy.idx.upgrade")));
+    }
+
+    @Test
+    public void testUnknownHeaderlessIndexFailsLoad() throws IOException {
+        byte[] garbage = new byte[97];
+        Arrays.fill(garbage, (byte) 0x7f);
+        Files.write(tempDir.resolve("headerless.idx"), garbage);
+
+        BlockIndex blockIndex = new BlockIndex();
+        assertThrows(IOException.class, () -> blockIndex.load(tempDir));
+    }
+
+    @ParameterizedTest
+    @EnumSource(IndexFile.Mode.class)
+    public void testMappingHeadroomIsNotRecords(IndexFile.Mode mode) throws IOException {
+        Path path = tempDir.resolve("segments.idx");
+        try (IndexFile indexFile = IndexFile.open(IndexFile.Mode.MMAP, path.toString())) {
+            for (int i = 0; i < 40; i++) {
+                indexFile.append(schema(i));
+                indexFile.writeReferenceCount(i, 2);
+            }
+            // The mapping runs ahead of the records, as it would at a crash
+            assertTrue(Files.size(path) > IndexFormat.position(40));
+            try (IndexFile reader = IndexFile.open(mode, path.toString())) {
+                assertEquals(40, reader.getRecordCount());
+                assertEquals(2, reader.read(39).getReferenceCount());
+            }
+        }
+        // A clean close gives the headroom back
+        assertEquals(IndexFormat.position(40), Files.size(path));
+
+        BlockIndex blockIndex = new BlockIndex();
+        blockIndex.load(tempDir);
+        assertEquals(40, blockIndex.size());
+        assertEquals(39, blockIndex.get(schema(39).getBlockHash()).getSlot());
+    }
+}
@@ -0,0 +1,83 @@
+package com.infolink.dfs.bfs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.infolink.dfs.shared.BlockHash;
+import com.infolink.dfs.shared.HashUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentDataStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testAppendRollAndReadBack() throws IOException {
+        byte[][] blocks = new byte[5][];
+        BlockSchema[] schemas = new BlockSchema[blocks.length];
+
+        // 40-byte segments hold two 16-byte blocks each
+        try (SegmentDataStore store = new SegmentDataStore(tempDir.toString(), 40, 4)) {
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = String.format("block-data-%05d", i).getBytes();
+                BlockHash hash = HashUtil.calculateBlockHash(blocks[i]);
+                schemas[i] = new BlockSchema(hash, 0, 1, blocks[i].length, false, 0L, 0L);
+                store.write(hash, schemas[i], blocks[i]);
+            }
+
+            assertEquals(0, schemas[0].getSegment());
+            assertEquals(0, schemas[0].getOffset());
+            assertEquals(0, schemas[1].getSegment());
+            assertEquals(16, schemas[1].getOffset());
+            assertEquals(1, schemas[2].getSegment());
+            assertEquals(0, schemas[2].getOffset());
+            assertEquals(2, schemas[4].getSegment());
+        }
+
+        // A reopened store reads old segments and continues the last one
+        try (SegmentDataStore store = new SegmentDataStore(tempDir.toString(), 40, 4)) {
+            for (int i = 0; i < blocks.length; i++) {
+                assertArrayEquals(blocks[i], store.read(schemas[i].getBlockHash(), schemas[i]));
+            }
+
+            byte[] data = "block-data-00005".getBytes();
+            BlockHash hash = HashUtil.calculateBlockHash(data);
+            BlockSchema schema = new BlockSchema(hash, 0, 1, data.length, false, 0L, 0L);
+            store.write(hash, schema, data);
+            assertEquals(2, schema.getSegment());
+            assertEquals(16, schema.getOffset());
+        }
+    }
+
+    @Test
+    public void testRegionOutlivesSegmentDeletion() throws IOException {
+        try (SegmentDataStore store = new SegmentDataStore(tempDir.toString(), 40, 4)) {
+            byte[] first = "block-data-first".getBytes();
+            byte[] second = "block-data-later".getBytes();
+            BlockSchema firstSchema = new BlockSchema(HashUtil.calculateBlockHash(first), 0, 1, first.length, false, 0L, 0L);
+            BlockSchema secondSchema = new BlockSchema(HashUtil.calculateBlockHash(second), 0, 1, second.length, false, 0L, 0L);
+            store.write(firstSchema.getBlockHash(), firstSchema, first);
+            store.write(secondSchema.getBlockHash(), secondSchema, second);
+
+            try (BlockRegion region = store.openRegion(secondSchema.getBlockHash(), secondSchema)) {
+                // Compaction drops a segment while the block is still being sent
+                store.evict(secondSchema.getSegment());
+                Files.delete(Paths.get(store.getDataFilePath(secondSchema.getBlockHash(), secondSchema)));
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                region.transferTo(Channels.newChannel(out));
+                assertEquals(second.length, region.getLength());
+                assertArrayEquals(second, out.toByteArray());
+            }
+        }
+    }
+}
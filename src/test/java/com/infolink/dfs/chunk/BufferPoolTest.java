@@ -0,0 +1,88 @@
+package com.infolink.dfs.chunk;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testReleasedBuffersAreReused() {
+        BufferPool pool = new BufferPool(1024, 4);
+        byte[] first = pool.acquire();
+        pool.release(first);
+
+        assertSame(first, pool.acquire());
+        assertEquals(1, pool.getAllocations());
+    }
+
+    @Test
+    public void testIdleBuffersAreBounded() {
+        BufferPool pool = new BufferPool(1024, 2);
+        byte[][] buffers = { pool.acquire(), pool.acquire(), pool.acquire() };
+        for (byte[] buffer : buffers) {
+            pool.release(buffer);
+        }
+        assertEquals(2, pool.getIdleCount());
+
+        // Buffers of another size never enter the pool
+        pool.acquire();
+        pool.release(new byte[512]);
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testPooledChunksMatchCopiedChunks() throws IOException {
+        byte[] data = new byte[1 << 20];
+        new Random(7).nextBytes(data);
+        Chunker copying = new FastCdcChunker(new ByteArrayInputStream(data), 2048, 8192, 65536);
+        Chunker pooled = new FastCdcChunker(new ByteArrayInputStream(data), 2048, 8192, 65536);
+
+        byte[] buffer = new byte[pooled.getMaxChunkSize()];
+        byte[] chunk;
+        while ((chunk = copying.nextChunk()) != null) {
+            int length = pooled.nextChunk(buffer);
+            assertArrayEquals(chunk, Arrays.copyOf(buffer, length));
+        }
+        assertEquals(-1, pooled.nextChunk(buffer));
+    }
+
+    // Chunking into pooled buffers should not allocate per block
+    @Test
+    public void testPooledChunkingAllocatesLittle() throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+
+        byte[] data = new byte[32 << 20];
+        new Random(3).nextBytes(data);
+        for (Chunker.Mode mode : Chunker.Mode.values()) {
+            Chunker chunker = Chunker.create(mode, new ByteArrayInputStream(data), new ChunkingConfig(8192, 2048, 8192, 65536));
+            BufferPool pool = new BufferPool(chunker.getMaxChunkSize(), 4);
+
+            long before = allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long total = 0;
+            while (true) {
+                byte[] buffer = pool.acquire();
+                int length = chunker.nextChunk(buffer);
+                pool.release(buffer);
+                if (length < 0) {
+                    break;
+                }
+                total += length;
+            }
+            long allocated = allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+            assertEquals(data.length, total);
+            assertTrue(allocated < data.length / 64, mode + " chunking allocated " + allocated + " bytes");
+        }
+    }
+}
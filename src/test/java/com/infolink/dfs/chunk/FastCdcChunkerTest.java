@@ -0,0 +1,104 @@
+package com.infolink.dfs.chunk;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FastCdcChunkerTest {
+    private static final int MIN = 2048;
+    private static final int AVG = 8192;
+    private static final int MAX = 65536;
+
+    private static List<byte[]> chunk(byte[] data) throws IOException {
+        Chunker chunker = new FastCdcChunker(new ByteArrayInputStream(data), MIN, AVG, MAX);
+        List<byte[]> chunks = new ArrayList<>();
+        byte[] chunk;
+        while ((chunk = chunker.nextChunk()) != null) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void testChunksReassembleWithinBounds() throws IOException {
+        byte[] data = randomBytes(1 << 20, 1);
+        List<byte[]> chunks = chunk(data);
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] chunk = chunks.get(i);
+            assertTrue(chunk.length <= MAX);
+            if (i < chunks.size() - 1) {
+                assertTrue(chunk.length >= MIN);
+            }
+            joined.write(chunk);
+        }
+        assertArrayEquals(data, joined.toByteArray());
+
+        // Normalized chunking keeps the average near the target
+        double average = (double) data.length / chunks.size();
+        assertTrue(average > AVG / 2.0 && average < AVG * 2.0, "average=" + average);
+    }
+
+    @Test
+    public void testInsertOnlyChangesNearbyChunks() throws IOException {
+        byte[] original = randomBytes(1 << 20, 2);
+        byte[] edited = new byte[original.length + 1];
+        int insertAt = original.length / 2;
+        System.arraycopy(original, 0, edited, 0, insertAt);
+        edited[insertAt] = 42;
+        System.arraycopy(original, insertAt, edited, insertAt + 1, original.length - insertAt);
+
+        Set<String> originalChunks = new HashSet<>();
+        List<byte[]> before = chunk(original);
+        for (byte[] c : before) {
+            originalChunks.add(new String(c, StandardCharsets.ISO_8859_1));
+        }
+        int shared = 0;
+        List<byte[]> after = chunk(edited);
+        for (byte[] c : after) {
+            if (originalChunks.contains(new String(c, StandardCharsets.ISO_8859_1))) {
+                shared++;
+            }
+        }
+
+        // Fixed-size blocks would share only the chunks before the insert
+        assertTrue(shared >= before.size() - 3, "shared=" + shared + " of " + before.size());
+    }
+
+    @Test
+    public void testSmallAndEmptyInput() throws IOException {
+        assertTrue(chunk(new byte[0]).isEmpty());
+
+        byte[] small = randomBytes(100, 3);
+        List<byte[]> chunks = chunk(small);
+        assertEquals(1, chunks.size());
+        assertArrayEquals(small, chunks.get(0));
+    }
+
+    @Test
+    public void testFixedSizeChunker() throws IOException {
+        Chunker chunker = Chunker.create(Chunker.Mode.FIXED, new ByteArrayInputStream(new byte[25]),
+            new ChunkingConfig(10, MIN, AVG, MAX));
+        assertEquals(10, chunker.nextChunk().length);
+        assertEquals(10, chunker.nextChunk().length);
+        assertEquals(5, chunker.nextChunk().length);
+        assertNull(chunker.nextChunk());
+    }
+}
@@ -0,0 +1,78 @@
+package com.infolink.dfs.shared;
+
+import org.junit.jupiter.api.Test;
+
+import com.infolink.dfs.BlockFramesResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockFramesTest {
+
+    @Test
+    public void testResourceFramesReadBack() throws IOException {
+        byte[] first = "first block".getBytes();
+        byte[] buffer = new byte[64];
+        byte[] second = "second block in a larger buffer".getBytes();
+        System.arraycopy(second, 0, buffer, 0, second.length);
+
+        BlockFramesResource frames = new BlockFramesResource();
+        frames.add(HashUtil.calculateBlockHash(first), first, first.length);
+        frames.add(HashUtil.calculateBlockHash(second), buffer, second.length);
+        byte[] body = frames.getInputStream().readAllBytes();
+        assertEquals(frames.contentLength(), body.length);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        BlockFrames.Frame frame = BlockFrames.read(in, 1024);
+        assertEquals(HashUtil.calculateBlockHash(first), frame.getHash());
+        assertArrayEquals(first, frame.getData());
+        frame = BlockFrames.read(in, 1024);
+        assertArrayEquals(second, frame.getData());
+        assertNull(BlockFrames.read(in, 1024));
+    }
+
+    @Test
+    public void testMissingAndOversizedFrames() throws IOException {
+        BlockHash missing = HashUtil.calculateBlockHash("missing".getBytes());
+        byte[] large = new byte[100];
+        byte[] small = "small".getBytes();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        BlockFrames.writeMissing(out, missing);
+        BlockFrames.write(out, HashUtil.calculateBlockHash(large), large, 0, large.length);
+        BlockFrames.write(out, HashUtil.calculateBlockHash(small), small, 0, small.length);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        BlockFrames.Frame frame = BlockFrames.read(in, 50);
+        assertTrue(frame.isMissing());
+        assertEquals(missing, frame.getHash());
+
+        // Skipped, but the stream stays in step
+        frame = BlockFrames.read(in, 50);
+        assertFalse(frame.isMissing());
+        assertNull(frame.getData());
+        assertEquals(large.length, frame.getLength());
+
+        assertArrayEquals(small, BlockFrames.read(in, 50).getData());
+        assertNull(BlockFrames.read(in, 50));
+    }
+
+    @Test
+    public void testTruncatedFrame() throws IOException {
+        byte[] block = "cut off".getBytes();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BlockFrames.write(new DataOutputStream(bytes), HashUtil.calculateBlockHash(block), block, 0, block.length);
+        byte[] body = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 2);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        assertThrows(EOFException.class, () -> BlockFrames.read(in, 1024));
+    }
+}
@@ -0,0 +1,56 @@
+package com.infolink.dfs.shared;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockHashTest {
+
+    @Test
+    public void testHexRoundTrip() throws NoSuchAlgorithmException {
+        byte[] data = "Test block data".getBytes();
+        String hex = HashUtil.calculateHash(data);
+
+        BlockHash hash = BlockHash.fromHex(hex);
+        assertEquals(hex, hash.toHex());
+        assertEquals(hash, HashUtil.calculateBlockHash(data));
+        assertEquals(hash.hashCode(), HashUtil.calculateBlockHash(data).hashCode());
+        assertEquals(hex.substring(0, 8), hash.prefixHex(4));
+    }
+
+    @Test
+    public void testCalculateBlockHashOfSlice() {
+        byte[] data = "xxTest block datayy".getBytes();
+        byte[] slice = "Test block data".getBytes();
+
+        assertEquals(HashUtil.calculateBlockHash(slice), HashUtil.calculateBlockHash(data, 2, slice.length));
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        BlockHash hash = HashUtil.calculateBlockHash("Test block data".getBytes());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        hash.writeTo(new DataOutputStream(bytes));
+        assertEquals(BlockHash.LENGTH, bytes.size());
+        assertArrayEquals(hash.toBytes(), bytes.toByteArray());
+
+        BlockHash readHash = BlockHash.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(hash, readHash);
+        assertEquals(hash, BlockHash.of(hash.toBytes()));
+    }
+
+    @Test
+    public void testInvalidHex() {
+        assertThrows(IllegalArgumentException.class, () -> BlockHash.fromHex("testHash"));
+        assertThrows(IllegalArgumentException.class, () -> BlockHash.fromHex("z".repeat(64)));
+        assertThrows(IllegalArgumentException.class, () -> BlockHash.of(new byte[16]));
+    }
+}